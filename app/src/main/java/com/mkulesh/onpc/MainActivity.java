@@ -36,6 +36,7 @@ import com.mkulesh.onpc.config.Configuration;
 import com.mkulesh.onpc.fragments.BaseFragment;
 import com.mkulesh.onpc.fragments.Dialogs;
 import com.mkulesh.onpc.iscp.ConnectionIf;
+import com.mkulesh.onpc.iscp.ConnectionRace;
 import com.mkulesh.onpc.iscp.ConnectionState;
 import com.mkulesh.onpc.iscp.DeviceList;
 import com.mkulesh.onpc.iscp.State;
@@ -49,6 +50,7 @@ import com.mkulesh.onpc.iscp.scripts.MessageScript;
 import com.mkulesh.onpc.iscp.scripts.MessageScriptIf;
 import com.mkulesh.onpc.iscp.scripts.RequestListeningMode;
 import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
 import com.mkulesh.onpc.utils.Utils;
 
 import java.util.ArrayList;
@@ -77,6 +79,7 @@ public class MainActivity extends AppCompatActivity implements StateManager.Stat
     private Menu mainMenu;
     private ConnectionState connectionState;
     private final StateHolder stateHolder = new StateHolder();
+    private ConnectionRace connectionRace = null;
     private DeviceList deviceList;
     private Toast exitToast = null;
     private MainNavigationDrawer navigationDrawer;
@@ -312,6 +315,10 @@ public class MainActivity extends AppCompatActivity implements StateManager.Stat
             {
                 m.setVisible(Logging.saveLogging);
             }
+            if (m.getItemId() == R.id.menu_statistics)
+            {
+                m.setVisible(configuration.isDeveloperMode());
+            }
         }
         updateToolbar(stateHolder.getState());
         return true;
@@ -350,6 +357,12 @@ public class MainActivity extends AppCompatActivity implements StateManager.Stat
             dl.showXmlDialog(R.mipmap.ic_launcher, R.string.menu_latest_logging, Logging.getLatestLogging());
             return true;
         }
+        case R.id.menu_statistics:
+        {
+            final Dialogs dl = new Dialogs(this);
+            dl.showXmlDialog(R.mipmap.ic_launcher, R.string.menu_statistics, Metrics.getReport());
+            return true;
+        }
         default:
             return super.onOptionsItemSelected(menuItem);
         }
@@ -608,7 +621,14 @@ public class MainActivity extends AppCompatActivity implements StateManager.Stat
         {
             Logging.info(this, "use stored connection data: "
                     + Utils.ipToString(configuration.getDeviceName(), configuration.getDevicePort()));
-            connectToDevice(configuration.getDeviceName(), configuration.getDevicePort(), true);
+            if (configuration.isFastConnect() && deviceList.isActive())
+            {
+                startConnectionRace(configuration.getDeviceName(), configuration.getDevicePort());
+            }
+            else
+            {
+                connectToDevice(configuration.getDeviceName(), configuration.getDevicePort(), true);
+            }
         }
         else if (messageScript != null &&
                 !messageScript.getHost().equals(ConnectionIf.EMPTY_HOST) &&
@@ -623,6 +643,50 @@ public class MainActivity extends AppCompatActivity implements StateManager.Stat
         }
     }
 
+    private void startConnectionRace(final String device, final int port)
+    {
+        stopConnectionRace();
+        Logging.info(this, "racing connections, preferred device: " + Utils.ipToString(device, port));
+        connectionRace = new ConnectionRace(this, deviceList, device, port, winner ->
+        {
+            if (connectionRace == null)
+            {
+                return;
+            }
+            connectionRace = null;
+            if (winner != null)
+            {
+                connectToDevice(winner);
+                // the socket is taken by the new state manager, if it connects to the winner
+                ConnectionRace.closeHandoff();
+            }
+            else
+            {
+                // The preferred device did not answer within the race timeout: it is not
+                // retried, but any device found later is connected
+                final String message = String.format(getResources().getString(
+                        R.string.error_connection_no_response), Utils.ipToString(device, port));
+                Logging.info(this, message);
+                Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+                if (deviceList.isActive())
+                {
+                    connectToAnyDevice.set(true);
+                }
+            }
+        });
+        connectionRace.start();
+    }
+
+    private void stopConnectionRace()
+    {
+        if (connectionRace != null)
+        {
+            connectionRace.stop();
+            connectionRace = null;
+        }
+        ConnectionRace.closeHandoff();
+    }
+
     @Override
     protected void onNewIntent(Intent intent)
     {
@@ -671,6 +735,7 @@ public class MainActivity extends AppCompatActivity implements StateManager.Stat
         {
             savedReceiverInformation = getStateManager().getState().receiverInformation;
         }
+        stopConnectionRace();
         deviceList.stop();
         connectionState.stop();
         stateHolder.release(true, "pause");
@@ -49,6 +49,7 @@ public class Configuration
     private static final String SELECTED_DEVICE_SELECTORS = "selected_device_selectors";
 
     private static final String AUTO_POWER = "auto_power";
+    private static final String FAST_CONNECT = "fast_connect";
     static final String FRIENDLY_NAMES = "pref_friendly_names";
     static final String NETWORK_SERVICES = "network_services";
     private static final String SELECTED_NETWORK_SERVICES = "selected_network_services";
@@ -236,6 +237,11 @@ public class Configuration
         return preferences.getBoolean(AUTO_POWER, false);
     }
 
+    public boolean isFastConnect()
+    {
+        return preferences.getBoolean(FAST_CONNECT, false);
+    }
+
     public boolean isFriendlyNames()
     {
         return preferences.getBoolean(FRIENDLY_NAMES, true);
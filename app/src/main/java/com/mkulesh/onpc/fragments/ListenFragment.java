@@ -15,7 +15,10 @@
 package com.mkulesh.onpc.fragments;
 
 import android.annotation.SuppressLint;
+import android.app.ActivityManager;
+import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -39,6 +42,7 @@ import com.mkulesh.onpc.iscp.messages.CdPlayerOperationCommandMsg;
 import com.mkulesh.onpc.iscp.messages.DcpAllZoneStereoMsg;
 import com.mkulesh.onpc.iscp.messages.DisplayModeMsg;
 import com.mkulesh.onpc.iscp.messages.InputSelectorMsg;
+import com.mkulesh.onpc.iscp.messages.JacketArtMsg;
 import com.mkulesh.onpc.iscp.messages.ListeningModeMsg;
 import com.mkulesh.onpc.iscp.messages.MasterVolumeMsg;
 import com.mkulesh.onpc.iscp.messages.MenuStatusMsg;
@@ -144,6 +148,16 @@ public class ListenFragment extends BaseFragment implements AudioControlManager.
         clearSoundVolumeButtons();
 
         cover = rootView.findViewById(R.id.tv_cover);
+        {
+            // Covers are decoded not larger than the cover view
+            cover.addOnLayoutChangeListener((v, l, t, r, b, ol, ot, or, ob) ->
+                    JacketArtMsg.setTargetSize(Math.max(r - l, b - t)));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            {
+                final ActivityManager am = (ActivityManager) activity.getSystemService(Context.ACTIVITY_SERVICE);
+                JacketArtMsg.setLowMemory(am != null && am.isLowRamDevice());
+            }
+        }
         seekBar = rootView.findViewById(R.id.progress_bar);
         seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener()
         {
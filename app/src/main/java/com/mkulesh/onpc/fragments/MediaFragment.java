@@ -22,6 +22,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.LinearLayout;
 import android.widget.ListView;
@@ -74,6 +75,8 @@ public class MediaFragment extends BaseFragment implements AdapterView.OnItemCli
     private PresetCommandMsg selectedStation = null;
     int moveFrom = -1;
     private int filteredItems = 0;
+    private String listKey = null;
+    private boolean playingShown = false;
 
     static class ShortcutInfo
     {
@@ -112,6 +115,23 @@ public class MediaFragment extends BaseFragment implements AdapterView.OnItemCli
         listView.setFocusableInTouchMode(true);
         listView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
         listView.setOnItemClickListener(this);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener()
+        {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState)
+            {
+                // nothing to do
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+            {
+                if (activity.isConnected() && visibleItemCount > 0)
+                {
+                    activity.getStateManager().requestListItems(firstVisibleItem + visibleItemCount);
+                }
+            }
+        });
 
         // media filter
         mediaFilter.init(activity, rootView, () ->
@@ -713,12 +733,31 @@ public class MediaFragment extends BaseFragment implements AdapterView.OnItemCli
             newItems.add(nsMsg);
         }
 
+        // Keep the scroll position if further items of the same list are loaded
+        final String newListKey = state.mediaListSid + "/" + state.mediaListCid + "/" + state.titleBar;
+        final boolean isAppended = newListKey.equals(listKey) && listViewAdapter != null
+                && newItems.size() > listViewAdapter.getCount();
+        if (!isAppended)
+        {
+            playingShown = false;
+        }
+        listKey = newListKey;
+        final int firstVisible = listView.getFirstVisiblePosition();
+        final View firstView = listView.getChildAt(0);
+        final int firstTop = firstView == null ? 0 : firstView.getTop();
+
         listViewAdapter = new MediaListAdapter(this, activity, newItems);
         listView.setAdapter(listViewAdapter);
-        if (playing >= 0)
+        if (playing >= 0 && !playingShown)
         {
+            // the playing item is shown once, also if it is received within a later window
+            playingShown = true;
             setSelection(playing, listView.getHeight() / 2);
         }
+        else if (isAppended)
+        {
+            listView.setSelectionFromTop(firstVisible, firstTop);
+        }
     }
 
     @Override
@@ -150,7 +150,7 @@ public class BroadcastSearch extends AppTask implements Runnable
 
     private void requestIscp(DatagramSocket socket, final Character modelCategoryId)
     {
-        final EISCPMessage m = new EISCPMessage(modelCategoryId, "ECN", "QSTN");
+        final EISCPMessage m = EISCPMessage.getQuery(modelCategoryId, "ECN");
         final byte[] bytes = m.getBytes();
 
         try
@@ -0,0 +1,352 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import android.app.Activity;
+
+import com.mkulesh.onpc.iscp.messages.BroadcastResponseMsg;
+import com.mkulesh.onpc.utils.AppTask;
+import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Races non-blocking connects to the preferred device, the favorite connections and the devices
+ * found by the broadcast search. Connect attempts are started with a stagger delay; the first
+ * device that accepts the connection wins, unless the preferred device answers within a short
+ * grace period. The connected socket of the winner is kept open and is taken over by the
+ * message channel that connects to the winner afterwards.
+ */
+public class ConnectionRace extends AppTask implements Runnable
+{
+    private final static long STAGGER_DELAY = 250;
+    private final static long GRACE_PERIOD = 300;
+    private final static long RACE_TIMEOUT = 5000;
+    // DCP connects the optional HEOS port before the telnet port, which may take a connect timeout
+    private final static long HANDOFF_TIMEOUT = 10000;
+
+    // The socket of the last winner that is not yet taken over by a message channel
+    private static SocketChannel handoffSocket = null;
+    private static String handoffHostAndPort = null;
+    private static long handoffTime = 0;
+
+    public interface EventListener
+    {
+        /**
+         * Called in the UI thread. The winner is null if no device is reachable
+         */
+        void onRaceFinished(@Nullable BroadcastResponseMsg winner);
+    }
+
+    private final Activity activity;
+    private final DeviceList deviceList;
+    private final BroadcastResponseMsg preferred;
+    private final EventListener eventListener;
+
+    // Candidates in the order of the connect attempts
+    private final List<BroadcastResponseMsg> candidates = new ArrayList<>();
+    private final Set<String> knownCandidates = new HashSet<>();
+
+    public ConnectionRace(@NonNull final Activity activity,
+                          @NonNull final DeviceList deviceList,
+                          @NonNull final String host, final int port,
+                          @NonNull final EventListener eventListener)
+    {
+        super(false);
+        setBackgroundTask(this, this.getClass().getSimpleName());
+        this.activity = activity;
+        this.deviceList = deviceList;
+        this.preferred = new BroadcastResponseMsg(host, port, "");
+        this.eventListener = eventListener;
+        addCandidate(preferred);
+    }
+
+    private void addCandidate(@NonNull final BroadcastResponseMsg msg)
+    {
+        if (knownCandidates.add(msg.getHostAndPort()))
+        {
+            candidates.add(msg);
+        }
+    }
+
+    private boolean isPreferred(@NonNull final BroadcastResponseMsg msg)
+    {
+        return msg.getHostAndPort().equals(preferred.getHostAndPort());
+    }
+
+    @Override
+    public void run()
+    {
+        Logging.info(this, "started: " + this);
+        final long startTime = System.currentTimeMillis();
+        BroadcastResponseMsg winner = null;
+        SocketChannel winnerSocket = null;
+        Selector selector = null;
+        try
+        {
+            selector = Selector.open();
+            int started = 0;
+            long nextStartTime = startTime;
+            long graceDeadline = Long.MAX_VALUE;
+            boolean preferredPending = true;
+
+            while (!isCancelled())
+            {
+                final long currTime = System.currentTimeMillis();
+                if (currTime >= startTime + RACE_TIMEOUT)
+                {
+                    break;
+                }
+                if (winner != null && (!preferredPending || currTime >= graceDeadline))
+                {
+                    break;
+                }
+
+                // Devices found by the broadcast search during the race join the race as well
+                for (BroadcastResponseMsg msg : deviceList.getDevices(true))
+                {
+                    addCandidate(msg);
+                }
+
+                if (winner == null && started < candidates.size() && currTime >= nextStartTime)
+                {
+                    final BroadcastResponseMsg c = candidates.get(started++);
+                    nextStartTime = currTime + STAGGER_DELAY;
+                    if (!startConnect(selector, c) && isPreferred(c))
+                    {
+                        preferredPending = false;
+                    }
+                }
+
+                long timeout = startTime + RACE_TIMEOUT - currTime;
+                if (winner != null)
+                {
+                    timeout = Math.min(timeout, graceDeadline - currTime);
+                }
+                else if (started < candidates.size())
+                {
+                    timeout = Math.min(timeout, nextStartTime - currTime);
+                }
+                else
+                {
+                    // wait for new broadcast responses
+                    timeout = Math.min(timeout, STAGGER_DELAY);
+                }
+                selector.select(Math.max(1, timeout));
+
+                for (SelectionKey key : selector.selectedKeys())
+                {
+                    final BroadcastResponseMsg c = (BroadcastResponseMsg) key.attachment();
+                    final boolean connected = finishConnect(key);
+                    if (isPreferred(c))
+                    {
+                        preferredPending = false;
+                        if (connected)
+                        {
+                            winner = c;
+                            winnerSocket = (SocketChannel) key.channel();
+                        }
+                    }
+                    else if (connected && winner == null)
+                    {
+                        winner = c;
+                        winnerSocket = (SocketChannel) key.channel();
+                        graceDeadline = System.currentTimeMillis() + GRACE_PERIOD;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+        catch (Exception e)
+        {
+            Logging.info(this, "interrupted: " + e.getLocalizedMessage());
+        }
+        finally
+        {
+            closeAll(selector, winnerSocket);
+        }
+
+        final long raceTime = System.currentTimeMillis() - startTime;
+        Logging.info(this, "stopped after " + raceTime + "ms, winner: "
+                + (winner == null ? "none" : winner.getHostAndPort()));
+        if (winner != null)
+        {
+            Metrics.set("Connect race time, ms", raceTime);
+        }
+        if (winner != null && !isCancelled())
+        {
+            offerSocket(winner.getHostAndPort(), winnerSocket);
+        }
+        else
+        {
+            closeSocket(winnerSocket);
+        }
+        if (!isCancelled())
+        {
+            final BroadcastResponseMsg result = winner;
+            activity.runOnUiThread(() -> eventListener.onRaceFinished(result));
+        }
+        super.stop();
+    }
+
+    private boolean startConnect(@NonNull final Selector selector, @NonNull final BroadcastResponseMsg c)
+    {
+        Logging.info(this, "connecting to " + c.getHostAndPort());
+        try
+        {
+            final SocketChannel socket = SocketChannel.open();
+            socket.configureBlocking(false);
+            socket.connect(new InetSocketAddress(c.getHost(), c.getPort()));
+            socket.register(selector, SelectionKey.OP_CONNECT, c);
+            return true;
+        }
+        catch (Exception e)
+        {
+            Logging.info(this, "cannot connect to " + c.getHostAndPort() + ": " + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    private boolean finishConnect(@NonNull final SelectionKey key)
+    {
+        try
+        {
+            if (((SocketChannel) key.channel()).finishConnect())
+            {
+                key.interestOps(0);
+                return true;
+            }
+            return false;
+        }
+        catch (Exception e)
+        {
+            try
+            {
+                // closing of the channel also cancels its key
+                key.channel().close();
+            }
+            catch (Exception ex)
+            {
+                // nothing to do
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Closes all sockets except the winner. Closing of the selector also deregisters the
+     * winner socket, so that it can be registered in the reactor selector
+     */
+    private void closeAll(@Nullable final Selector selector, @Nullable final SocketChannel winnerSocket)
+    {
+        if (selector == null)
+        {
+            return;
+        }
+        for (SelectionKey key : selector.keys())
+        {
+            if (key.channel() != winnerSocket)
+            {
+                closeSocket(key.channel());
+            }
+        }
+        try
+        {
+            selector.close();
+        }
+        catch (Exception e)
+        {
+            // nothing to do
+        }
+    }
+
+    private static void closeSocket(@Nullable final Channel socket)
+    {
+        try
+        {
+            if (socket != null)
+            {
+                socket.close();
+            }
+        }
+        catch (Exception e)
+        {
+            // nothing to do
+        }
+    }
+
+    private static synchronized void offerSocket(@NonNull final String hostAndPort, @NonNull final SocketChannel socket)
+    {
+        closeSocket(handoffSocket);
+        handoffSocket = socket;
+        handoffHostAndPort = hostAndPort;
+        handoffTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the socket of the last winner if it is not taken, for example if the activity
+     * is paused or an other device is connected
+     */
+    public static synchronized void closeHandoff()
+    {
+        if (handoffSocket != null)
+        {
+            Logging.info(ConnectionRace.class, "closing unclaimed socket of " + handoffHostAndPort);
+            closeSocket(handoffSocket);
+            handoffSocket = null;
+            handoffHostAndPort = null;
+        }
+    }
+
+    /**
+     * Returns the connected socket of the last winner if it is the given device, or null
+     * otherwise. A socket that is not taken in time is closed.
+     */
+    @Nullable
+    static synchronized SocketChannel takeSocket(@NonNull final String hostAndPort)
+    {
+        final SocketChannel socket = handoffSocket;
+        if (socket == null)
+        {
+            return null;
+        }
+        final boolean expired = System.currentTimeMillis() >= handoffTime + HANDOFF_TIMEOUT;
+        if (!expired && !hostAndPort.equals(handoffHostAndPort))
+        {
+            // for example, the HEOS port of a DCP receiver is connected before the telnet port
+            return null;
+        }
+        handoffSocket = null;
+        handoffHostAndPort = null;
+        if (!expired && socket.isConnected())
+        {
+            return socket;
+        }
+        closeSocket(socket);
+        return null;
+    }
+}
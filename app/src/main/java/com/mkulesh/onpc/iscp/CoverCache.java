@@ -0,0 +1,244 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
+import com.mkulesh.onpc.utils.Utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Two-level cache of cover images shared by all connections: decoded bitmaps are kept
+ * in a memory LRU cache bounded by bitmap bytes, and encoded images are kept in a
+ * size-capped directory within the app cache directory, where the least recently
+ * used files are deleted first.
+ */
+final class CoverCache
+{
+    private final static int MAX_MEMORY_SIZE = 16 * 1024 * 1024;
+    private final static long MAX_DISK_SIZE = 32 * 1024 * 1024;
+    private final static long TRIM_DISK_SIZE = MAX_DISK_SIZE * 3 / 4;
+    private final static String DIR_NAME = "covers";
+
+    private static CoverCache instance = null;
+
+    private final LruCache<String, Bitmap> memory;
+    private File diskDir = null;
+    private long diskSize = 0; // running total of the directory, scanned once when it is set
+
+    private CoverCache()
+    {
+        final int maxSize = (int) Math.min(MAX_MEMORY_SIZE, Runtime.getRuntime().maxMemory() / 16);
+        memory = new LruCache<String, Bitmap>(maxSize)
+        {
+            @Override
+            protected int sizeOf(String key, Bitmap value)
+            {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue)
+            {
+                if (evicted)
+                {
+                    Metrics.increment("Cover cache, memory evictions");
+                }
+            }
+        };
+    }
+
+    @NonNull
+    static synchronized CoverCache getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new CoverCache();
+        }
+        return instance;
+    }
+
+    /**
+     * The disk level is only used if the cache directory is set
+     */
+    synchronized void setCacheDir(@NonNull final File cacheDir)
+    {
+        final File dir = new File(cacheDir, DIR_NAME);
+        if (dir.equals(diskDir))
+        {
+            return;
+        }
+        if (dir.isDirectory() || dir.mkdirs())
+        {
+            diskDir = dir;
+            diskSize = 0;
+            final File[] files = dir.listFiles();
+            if (files != null)
+            {
+                for (File f : files)
+                {
+                    diskSize += f.length();
+                }
+            }
+            Metrics.set("Cover cache, disk size, B", diskSize);
+        }
+    }
+
+    /**
+     * Key of a cover that is identified by the track and not by a link
+     */
+    @NonNull
+    static String getTrackKey(@Nullable final String artist, @Nullable final String album, @Nullable final String title)
+    {
+        return "track:" + artist + "/" + album + "/" + title;
+    }
+
+    @Nullable
+    Bitmap getBitmap(@NonNull final String key)
+    {
+        final Bitmap b = memory.get(key);
+        Metrics.increment(b != null ? "Cover cache, memory hits" : "Cover cache, memory misses");
+        return b;
+    }
+
+    void putBitmap(@NonNull final String key, @Nullable final Bitmap bitmap)
+    {
+        if (bitmap != null)
+        {
+            memory.put(key, bitmap);
+            Metrics.set("Cover cache, memory size, B", memory.size());
+        }
+    }
+
+    /**
+     * Returns the encoded image or null if it is not cached. Can be called from any thread.
+     */
+    @Nullable
+    synchronized byte[] getData(@NonNull final String key)
+    {
+        if (diskDir == null)
+        {
+            return null;
+        }
+        final File f = new File(diskDir, getFileName(key));
+        if (!f.isFile())
+        {
+            Metrics.increment("Cover cache, disk misses");
+            return null;
+        }
+        try
+        {
+            final FileInputStream stream = new FileInputStream(f);
+            final byte[] data = Utils.streamToByteArray(stream);
+            stream.close();
+            //noinspection ResultOfMethodCallIgnored
+            f.setLastModified(System.currentTimeMillis());
+            Metrics.increment("Cover cache, disk hits");
+            return data;
+        }
+        catch (Exception e)
+        {
+            Logging.info(this, "cannot read cached cover: " + e.getLocalizedMessage());
+            Metrics.increment("Cover cache, disk misses");
+            return null;
+        }
+    }
+
+    synchronized void putData(@NonNull final String key, @NonNull final byte[] data, final int offset, final int length)
+    {
+        if (diskDir == null || length <= 0 || length > MAX_DISK_SIZE / 4)
+        {
+            return;
+        }
+        final File f = new File(diskDir, getFileName(key));
+        final long oldSize = f.isFile() ? f.length() : 0;
+        try
+        {
+            final FileOutputStream stream = new FileOutputStream(f);
+            stream.write(data, offset, length);
+            stream.close();
+            diskSize += length - oldSize;
+            if (diskSize > MAX_DISK_SIZE)
+            {
+                trimDisk();
+            }
+        }
+        catch (Exception e)
+        {
+            Logging.info(this, "cannot write cached cover: " + e.getLocalizedMessage());
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+            diskSize = Math.max(0, diskSize - oldSize);
+        }
+        Metrics.set("Cover cache, disk size, B", diskSize);
+    }
+
+    /**
+     * Deletes the least recently used files. The directory is only listed if the running
+     * total exceeds the size cap, and it is trimmed below the cap in order to not list
+     * it again on the next put
+     */
+    private void trimDisk()
+    {
+        final File[] files = diskDir.listFiles();
+        if (files != null)
+        {
+            Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+            for (File f : files)
+            {
+                if (diskSize <= TRIM_DISK_SIZE)
+                {
+                    break;
+                }
+                final long size = f.length();
+                if (f.delete())
+                {
+                    diskSize -= size;
+                    Metrics.increment("Cover cache, disk evictions");
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static String getFileName(@NonNull final String key)
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(Utils.UTF_8));
+            final StringBuilder str = new StringBuilder();
+            for (byte b : digest)
+            {
+                str.append(String.format("%02x", b & 0xFF));
+            }
+            return str.toString();
+        }
+        catch (Exception e)
+        {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
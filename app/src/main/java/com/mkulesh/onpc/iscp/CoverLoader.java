@@ -0,0 +1,230 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import android.graphics.Bitmap;
+
+import com.mkulesh.onpc.iscp.messages.JacketArtMsg;
+import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
+import com.mkulesh.onpc.utils.Utils;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Downloads and decodes cover images in a background thread. The loaded cover is
+ * returned to the state thread as a Result message via the input queue. Only the
+ * last requested cover is loaded: a new request cancels all previous requests.
+ * Loaded covers are stored in the CoverCache if their key is known.
+ */
+class CoverLoader
+{
+    /**
+     * Internal message that delivers the loaded cover to the state thread
+     */
+    static class Result extends ISCPMessage
+    {
+        final int generation;
+        final long requestTime;
+        final URL url;
+        final Bitmap cover;
+
+        Result(final int generation, final long requestTime, @NonNull final URL url, @Nullable final Bitmap cover)
+        {
+            super(generation, "");
+            this.generation = generation;
+            this.requestTime = requestTime;
+            this.url = url;
+            this.cover = cover;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return "COVER/" + generation + "[URL=" + url + "; COVER=" + (cover != null) + "]";
+        }
+    }
+
+    private final InputQueue inputQueue;
+    private final CoverCache cache = CoverCache.getInstance();
+    private final AtomicInteger generation = new AtomicInteger(0);
+
+    // A single worker with a single waiting request: an older waiting request is discarded
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+            r -> new Thread(r, CoverLoader.class.getSimpleName()),
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+    private Future<?> pending = null;
+
+    // A blocking read is not interrupted by the cancel of the task: the connection is closed instead
+    private final static int TIMEOUT = 5000;
+    private final AtomicReference<URLConnection> connection = new AtomicReference<>();
+
+    CoverLoader(@NonNull final InputQueue inputQueue)
+    {
+        this.inputQueue = inputQueue;
+    }
+
+    /**
+     * Called in the state thread if a new cover link is received. The key identifies the
+     * cover in the cache; without a key, the cache is not used
+     */
+    void load(@NonNull final JacketArtMsg msg, @Nullable final String key)
+    {
+        final URL url = msg.getUrl();
+        if (url == null || executor.isShutdown())
+        {
+            return;
+        }
+        cancel();
+        final int gen = generation.get();
+        final long requestTime = System.currentTimeMillis();
+        final Bitmap cached = key == null ? null : cache.getBitmap(key);
+        if (cached != null)
+        {
+            pending = null;
+            inputQueue.add(new Result(gen, requestTime, url, cached));
+            return;
+        }
+        pending = executor.submit(() ->
+        {
+            if (gen != generation.get())
+            {
+                return;
+            }
+            final Bitmap cover = loadFromDiskOrUrl(msg, key, gen);
+            if (key != null)
+            {
+                cache.putBitmap(key, cover);
+            }
+            if (gen == generation.get())
+            {
+                inputQueue.add(new Result(gen, requestTime, url, cover));
+            }
+            else
+            {
+                Logging.info(this, "cover " + url + " is outdated and ignored");
+            }
+        });
+    }
+
+    /**
+     * Supersedes the current request: its result is ignored and its download is aborted
+     */
+    void cancel()
+    {
+        generation.incrementAndGet();
+        if (pending != null && !pending.isDone())
+        {
+            Metrics.increment("Cover loader, cancelled requests");
+            pending.cancel(true);
+        }
+        pending = null;
+        final URLConnection c = connection.getAndSet(null);
+        if (c instanceof HttpURLConnection)
+        {
+            ((HttpURLConnection) c).disconnect();
+        }
+    }
+
+    @Nullable
+    private Bitmap loadFromDiskOrUrl(@NonNull final JacketArtMsg msg, @Nullable final String key, final int gen)
+    {
+        final byte[] cachedData = key == null ? null : cache.getData(key);
+        if (cachedData != null)
+        {
+            final Bitmap cover = msg.decodeImage(cachedData, 0, cachedData.length);
+            if (cover != null)
+            {
+                return cover;
+            }
+        }
+        final byte[] bytes = getUrlData(msg.getUrl(), gen);
+        if (bytes == null)
+        {
+            return null;
+        }
+        final int offset = Utils.getUrlHeaderLength(bytes);
+        final Bitmap cover = msg.decodeImage(bytes, offset, bytes.length - offset);
+        if (cover != null && key != null)
+        {
+            cache.putData(key, bytes, offset, bytes.length - offset);
+        }
+        return cover;
+    }
+
+    @Nullable
+    private byte[] getUrlData(@NonNull final URL url, final int gen)
+    {
+        URLConnection c = null;
+        try
+        {
+            Logging.info(this, "loading data from URL: " + url);
+            c = url.openConnection();
+            c.setConnectTimeout(TIMEOUT);
+            c.setReadTimeout(TIMEOUT);
+            c.setRequestProperty("Accept-Encoding", "gzip");
+            connection.set(c);
+            if (gen != generation.get())
+            {
+                // superseded before the connection was visible to cancel()
+                return null;
+            }
+            final InputStream inputStream = "gzip".equals(c.getContentEncoding()) ?
+                    new GZIPInputStream(c.getInputStream()) : c.getInputStream();
+            return Utils.streamToByteArray(inputStream);
+        }
+        catch (Exception e)
+        {
+            Logging.info(this, "can not open URL: " + e.getLocalizedMessage());
+            return null;
+        }
+        finally
+        {
+            if (c != null)
+            {
+                connection.compareAndSet(c, null);
+            }
+        }
+    }
+
+    /**
+     * A result is outdated if a newer cover was requested after it
+     */
+    boolean isCurrent(@NonNull final Result result)
+    {
+        return result.generation == generation.get();
+    }
+
+    void stop()
+    {
+        cancel();
+        executor.shutdownNow();
+    }
+}
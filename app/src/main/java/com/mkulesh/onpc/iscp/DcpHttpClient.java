@@ -0,0 +1,124 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+
+/**
+ * HTTP client for the goform and AppCommand requests of a DCP receiver. The requests are
+ * sent in the given order by a single background thread, so that the reactor thread is
+ * never blocked. Each response is completely read and closed, which allows the platform
+ * to reuse the keep-alive connection to the receiver for the next request.
+ */
+class DcpHttpClient
+{
+    private final static int TIMEOUT = 3000;
+    private final static int MAX_PENDING = 64;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final byte[] responseBuffer = new byte[4096];
+
+    DcpHttpClient(@NonNull final String name)
+    {
+        this.name = name;
+        executor = new ThreadPoolExecutor(1, 1,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING),
+                r -> new Thread(r, DcpHttpClient.class.getSimpleName()),
+                (r, e) -> Metrics.increment("DCP HTTP " + name + ", rejected requests"));
+    }
+
+    void get(@NonNull final URL url)
+    {
+        if (!executor.isShutdown())
+        {
+            executor.execute(() -> send(url, null));
+        }
+    }
+
+    void post(@NonNull final URL url, @NonNull final byte[] body)
+    {
+        if (!executor.isShutdown())
+        {
+            executor.execute(() -> send(url, body));
+        }
+    }
+
+    void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    private void send(@NonNull final URL url, final byte[] body)
+    {
+        final long startTime = System.currentTimeMillis();
+        HttpURLConnection http = null;
+        try
+        {
+            http = (HttpURLConnection) url.openConnection();
+            http.setConnectTimeout(TIMEOUT);
+            http.setReadTimeout(TIMEOUT);
+            http.setRequestProperty("Connection", "keep-alive");
+            if (body != null)
+            {
+                http.setRequestMethod("POST");
+                http.setDoOutput(true);
+                http.setFixedLengthStreamingMode(body.length);
+                http.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
+                final OutputStream os = http.getOutputStream();
+                os.write(body);
+                os.close();
+            }
+            final int code = http.getResponseCode();
+            final InputStream is = code < HttpURLConnection.HTTP_BAD_REQUEST ?
+                    http.getInputStream() : http.getErrorStream();
+            int length = 0;
+            if (is != null)
+            {
+                // the body is not used, but shall be consumed to keep the connection alive
+                int n;
+                while ((n = is.read(responseBuffer)) > 0)
+                {
+                    length += n;
+                }
+                is.close();
+            }
+            Logging.info(this, "DCP HTTP " + (body != null ? "POST " : "GET ") + url
+                    + " -> " + code + ", " + length + "B");
+            Metrics.set("DCP HTTP " + name + ", request time, ms", System.currentTimeMillis() - startTime);
+        }
+        catch (Exception ex)
+        {
+            Logging.info(this, "DCP HTTP error: " + ex.getLocalizedMessage());
+            Metrics.increment("DCP HTTP " + name + ", errors");
+            if (http != null)
+            {
+                // the connection is in unknown state and can not be reused
+                http.disconnect();
+            }
+        }
+    }
+}
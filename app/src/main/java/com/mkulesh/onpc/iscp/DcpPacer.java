@@ -0,0 +1,162 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import com.mkulesh.onpc.utils.Logging;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Paces the outgoing DCP commands. Telnet, HTTP and HEOS commands are kept in separate
+ * queues, each one with an own token bucket, so that for example HEOS browse requests
+ * are not throttled by the telnet limit of the receiver. The order of commands within
+ * the same route is preserved.
+ */
+class DcpPacer
+{
+    enum Route
+    {
+        TELNET, HTTP, HEOS
+    }
+
+    /**
+     * Telnet send period for a model name prefix
+     */
+    private final static class ModelRate
+    {
+        final String prefix;
+        final long period;
+
+        ModelRate(final String prefix, final long period)
+        {
+            this.prefix = prefix;
+            this.period = period;
+        }
+    }
+
+    // DCP documentation: Send the COMMAND in 50ms or more intervals.
+    // The default period has a reserve for older models.
+    private final static long TELNET_PERIOD = 75;
+    private final static ModelRate[] MODEL_RATES = new ModelRate[]{
+            new ModelRate("AVR-X", 50),
+            new ModelRate("AVC-X", 50),
+            new ModelRate("SR", 50),
+            new ModelRate("NR", 50)
+    };
+
+    // HTTP requests are queued by the HTTP client, HEOS CLI is answered command by command
+    private final static int HTTP_BURST = 4;
+    private final static long HTTP_PERIOD = 25;
+    private final static int HEOS_BURST = 4;
+    private final static long HEOS_PERIOD = 20;
+
+    private final ArrayDeque<String>[] queues;
+    // The telnet bucket is replaced from the state thread, see setModel
+    private final AtomicReferenceArray<TokenBucket> rates;
+
+    @SuppressWarnings("unchecked")
+    DcpPacer()
+    {
+        final int n = Route.values().length;
+        queues = new ArrayDeque[n];
+        rates = new AtomicReferenceArray<>(n);
+        for (int i = 0; i < n; i++)
+        {
+            queues[i] = new ArrayDeque<>();
+        }
+        rates.set(Route.TELNET.ordinal(), new TokenBucket(1, TELNET_PERIOD));
+        rates.set(Route.HTTP.ordinal(), new TokenBucket(HTTP_BURST, HTTP_PERIOD));
+        rates.set(Route.HEOS.ordinal(), new TokenBucket(HEOS_BURST, HEOS_PERIOD));
+    }
+
+    /**
+     * Applies the telnet send period known for the given model. Can be called from any thread
+     */
+    void setModel(@NonNull final String model)
+    {
+        long period = TELNET_PERIOD;
+        for (ModelRate r : MODEL_RATES)
+        {
+            if (model.startsWith(r.prefix))
+            {
+                period = r.period;
+                break;
+            }
+        }
+        Logging.info(this, "DCP telnet send period for " + model + ": " + period + "ms");
+        rates.set(Route.TELNET.ordinal(), new TokenBucket(1, period));
+    }
+
+    void add(@NonNull final Route route, @NonNull final String cmd)
+    {
+        queues[route.ordinal()].add(cmd);
+    }
+
+    int size()
+    {
+        int s = 0;
+        for (ArrayDeque<String> q : queues)
+        {
+            s += q.size();
+        }
+        return s;
+    }
+
+    @Nullable
+    String peek(@NonNull final Route route)
+    {
+        return queues[route.ordinal()].peek();
+    }
+
+    /**
+     * Removes the next command of the given route without pacing
+     */
+    @Nullable
+    String poll(@NonNull final Route route)
+    {
+        return queues[route.ordinal()].poll();
+    }
+
+    /**
+     * Returns the next command of the given route if its budget allows sending it now
+     */
+    @Nullable
+    String take(@NonNull final Route route, final long currTime)
+    {
+        final ArrayDeque<String> q = queues[route.ordinal()];
+        return (!q.isEmpty() && rates.get(route.ordinal()).tryTake(currTime)) ? q.poll() : null;
+    }
+
+    /**
+     * Returns the time in milliseconds until the next command can be sent,
+     * or Long.MAX_VALUE if no command is waiting
+     */
+    long getWaitTime(final long currTime)
+    {
+        long wait = Long.MAX_VALUE;
+        for (int i = 0; i < queues.length; i++)
+        {
+            if (!queues[i].isEmpty())
+            {
+                wait = Math.min(wait, rates.get(i).getWaitTime(currTime));
+            }
+        }
+        return wait;
+    }
+}
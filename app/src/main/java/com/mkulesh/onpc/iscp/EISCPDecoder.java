@@ -0,0 +1,161 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import com.mkulesh.onpc.utils.Logging;
+
+import java.nio.ByteBuffer;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reusable compacting buffer that joins fragmented EISCP frames and finds
+ * complete messages in place, without copying of the received data
+ */
+class EISCPDecoder
+{
+    private final static byte[] MSG_START = new byte[]{ 'I', 'S', 'C', 'P' };
+    private final static int SIZES_END = MSG_START.length + 8; // "ISCP", header size, data size
+    private final static int MAX_MSG_SIZE = 4 * 1024 * 1024;
+
+    interface FrameListener
+    {
+        void onFrame(@NonNull byte[] bytes, int startIndex, int headerSize, int dataSize);
+    }
+
+    private final FrameListener listener;
+    private final int minFreeSpace;
+    private ByteBuffer buffer;
+    private int start = 0; // the first byte that is not decoded yet
+
+    EISCPDecoder(final int minFreeSpace, @NonNull final FrameListener listener)
+    {
+        this.listener = listener;
+        this.minFreeSpace = minFreeSpace;
+        this.buffer = ByteBuffer.allocate(4 * minFreeSpace);
+    }
+
+    /**
+     * Returns the buffer that receives new data from the socket. Not decoded data are
+     * moved to the buffer begin only if the free space is not enough for the next read,
+     * and the buffer is only re-allocated if a single message does not fit into it.
+     */
+    @NonNull
+    ByteBuffer getInputBuffer()
+    {
+        if (buffer.remaining() >= minFreeSpace)
+        {
+            return buffer;
+        }
+        final int size = buffer.position() - start;
+        final byte[] source = buffer.array();
+        final byte[] target = size + minFreeSpace <= source.length ?
+                source : new byte[Math.max(2 * source.length, size + minFreeSpace)];
+        System.arraycopy(source, start, target, 0, size);
+        if (target != source)
+        {
+            Logging.info(this, "buffer size increased to " + target.length + "B");
+            buffer = ByteBuffer.wrap(target);
+        }
+        buffer.clear();
+        buffer.position(size);
+        start = 0;
+        return buffer;
+    }
+
+    /**
+     * Calls the listener for each complete message in the buffer. Incomplete
+     * message remains in the buffer until the next call.
+     */
+    void decode()
+    {
+        final byte[] bytes = buffer.array();
+        final int end = buffer.position();
+        while (end - start >= MSG_START.length)
+        {
+            final int startIndex = getMsgStartIndex(bytes, start, end);
+            if (startIndex < 0)
+            {
+                // Keep the last bytes since they can be a begin of a start marker
+                final int ignored = end - start - (MSG_START.length - 1);
+                Logging.info(this, "<< error: message start marker not found. " + ignored + "B ignored");
+                start += ignored;
+                break;
+            }
+            else if (startIndex > start)
+            {
+                Logging.info(this, "<< error: unexpected position of message start: "
+                        + (startIndex - start) + ", remaining=" + (end - start) + "B");
+                start = startIndex;
+            }
+
+            if (end - start < SIZES_END)
+            {
+                break;
+            }
+
+            // convert header and data sizes in place
+            final int hSize = getInt(bytes, start + MSG_START.length);
+            final int dSize = getInt(bytes, start + MSG_START.length + 4);
+            if (hSize < SIZES_END || dSize < 0 || hSize + dSize > MAX_MSG_SIZE)
+            {
+                Logging.info(this, "<< error: invalid expected size: " + hSize + "/" + dSize);
+                // skip the start marker and search for the next one
+                start += MSG_START.length;
+                continue;
+            }
+
+            if (start + hSize + dSize > end)
+            {
+                // wait for the remaining part of the message
+                break;
+            }
+
+            listener.onFrame(bytes, start, hSize, dSize);
+            start += hSize + dSize;
+        }
+
+        if (start == buffer.position())
+        {
+            // everything is decoded: the next read starts at the buffer begin
+            buffer.clear();
+            start = 0;
+        }
+    }
+
+    private static int getMsgStartIndex(final byte[] bytes, final int from, final int to)
+    {
+        for (int i = from; i + MSG_START.length <= to; i++)
+        {
+            if (bytes[i] == MSG_START[0] &&
+                    bytes[i + 1] == MSG_START[1] &&
+                    bytes[i + 2] == MSG_START[2] &&
+                    bytes[i + 3] == MSG_START[3])
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int getInt(final byte[] bytes, final int offset)
+    {
+        // Big-endian, the same as ByteBuffer.getInt()
+        return ((bytes[offset] & 0xFF) << 24)
+                | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8)
+                | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -18,26 +18,41 @@ import com.mkulesh.onpc.utils.Utils;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public class EISCPMessage
 {
     private final static String MSG_START = "ISCP";
-    private final static String INVALID_MSG = "INVALID";
     public final static int CR = 0x0D;
     public final static int LF = 0x0A;
     private final static int EOF = 0x1A;
     private final static Character START_CHAR = '!';
-    private final static int MIN_MSG_LENGTH = 22;
+    final static int MIN_MSG_LENGTH = 22;
     public final static String QUERY = "QSTN";
     final static int LOG_LINE_LENGTH = 160;
 
     private final int messageId;
     private final int headerSize, dataSize, version;
     private final Character modelCategoryId;
-    private final String code;
-    private final String parameters;
+    private String code;
+    private String parameters;
+
+    // Inbound message is backed by a slice of the received frame: code and parameters
+    // are only decoded on demand. Note that the slice is only valid until the receive
+    // buffer is reused, i.e. the typed ISCPMessage shall be created immediately
+    private final byte[] rawBytes;
+    private final int rawOffset, rawLength;
+
+    // Immutable query messages with pre-serialized frames, keyed by model category and code
+    private final static Map<Character, Map<String, EISCPMessage>> queries = new ConcurrentHashMap<>();
+    private byte[] frame = null;
+
+    // Key of an absolute-value command that supersedes a not yet sent command with the same key
+    private String supersedeKey = null;
 
     public EISCPMessage(int messageId, byte[] bytes, int startIndex, int headerSize, int dataSize) throws Exception
     {
@@ -45,20 +60,20 @@ public class EISCPMessage
         this.headerSize = headerSize;
         this.dataSize = dataSize;
         version = getVersion(bytes, startIndex);
-        final String body = getRawMessage(bytes, startIndex);
-
-        if (body.length() < 5)
+        rawLength = getRawLength(bytes, startIndex);
+        if (rawLength < 5)
         {
-            throw new Exception("Can not decode message body: length " + body.length() + " is invalid");
+            throw new Exception("Can not decode message body: length " + rawLength + " is invalid");
         }
-        if (body.charAt(0) != START_CHAR)
+        rawBytes = bytes;
+        rawOffset = startIndex + headerSize;
+        if (rawBytes[rawOffset] != (byte) START_CHAR.charValue())
         {
             throw new Exception("Can not find start character in the raw message");
         }
-
-        modelCategoryId = body.charAt(1);
-        code = body.substring(2, 5);
-        parameters = (body.length() > 5) ? body.substring(5) : "";
+        modelCategoryId = (char) rawBytes[rawOffset + 1];
+        code = null;
+        parameters = null;
     }
 
     public EISCPMessage(final Character modelCategoryId, final String code, final String parameters)
@@ -70,6 +85,9 @@ public class EISCPMessage
         this.modelCategoryId = modelCategoryId;
         this.code = code;
         this.parameters = parameters;
+        rawBytes = null;
+        rawOffset = 0;
+        rawLength = 0;
     }
 
     public EISCPMessage(final String code, final String parameters)
@@ -77,20 +95,65 @@ public class EISCPMessage
         this('1', code, parameters);
     }
 
+    /**
+     * Returns an immutable query (QSTN) message. Its frame is only serialized once
+     * and the same bytes are then sent by each request.
+     */
+    @NonNull
+    public static EISCPMessage getQuery(final Character modelCategoryId, final String code)
+    {
+        Map<String, EISCPMessage> m = queries.get(modelCategoryId);
+        if (m == null)
+        {
+            queries.putIfAbsent(modelCategoryId, new ConcurrentHashMap<>());
+            m = queries.get(modelCategoryId);
+        }
+        EISCPMessage q = m.get(code);
+        if (q == null)
+        {
+            q = new EISCPMessage(modelCategoryId, code, QUERY);
+            q.frame = q.buildBytes();
+            m.put(code, q);
+        }
+        return q;
+    }
+
+    @NonNull
+    public static EISCPMessage getQuery(final String code)
+    {
+        return getQuery('1', code);
+    }
+
+    /**
+     * Marks this message as an absolute-value command: a not yet sent message
+     * with the same key is replaced by this one in the output queue
+     */
+    public EISCPMessage setSupersedeKey(@Nullable final String supersedeKey)
+    {
+        this.supersedeKey = supersedeKey;
+        return this;
+    }
+
+    @Nullable
+    String getSupersedeKey()
+    {
+        return supersedeKey;
+    }
+
     @NonNull
     @Override
     public String toString()
     {
-        String res = MSG_START + "/v" + version + "[" + headerSize + "," + dataSize + "]: " + code + "(";
+        String res = MSG_START + "/v" + version + "[" + headerSize + "," + dataSize + "]: " + getCode() + "(";
         if (isMultiline())
         {
-            float ln = (float) parameters.length() / (float) LOG_LINE_LENGTH;
+            float ln = (float) getParameters().length() / (float) LOG_LINE_LENGTH;
             res += (int) Math.ceil(ln);
             res += " lines)";
         }
         else
         {
-            res += parameters;
+            res += getParameters();
             res += ")";
         }
         return res;
@@ -98,7 +161,7 @@ public class EISCPMessage
 
     private boolean isMultiline()
     {
-        return parameters.length() > LOG_LINE_LENGTH;
+        return getParameters().length() > LOG_LINE_LENGTH;
     }
 
     int getMsgSize()
@@ -118,11 +181,70 @@ public class EISCPMessage
 
     public String getCode()
     {
+        if (code == null && rawBytes != null)
+        {
+            code = new String(rawBytes, rawOffset + 2, 3, Utils.UTF_8);
+        }
         return code;
     }
 
+    /**
+     * Compares the message code without decoding of the raw message
+     */
+    public boolean isCode(@NonNull final String c)
+    {
+        if (code != null || rawBytes == null)
+        {
+            return c.equals(code);
+        }
+        return c.length() == 3
+                && rawBytes[rawOffset + 2] == (byte) c.charAt(0)
+                && rawBytes[rawOffset + 3] == (byte) c.charAt(1)
+                && rawBytes[rawOffset + 4] == (byte) c.charAt(2);
+    }
+
+    /**
+     * Returns the packed message code, for inbound messages without decoding of the code
+     */
+    public int getPackedCode()
+    {
+        return (code == null && rawBytes != null) ?
+                packCode(rawBytes, rawOffset - headerSize, headerSize, rawLength) : packCode(getCode());
+    }
+
+    /**
+     * Packs three ASCII characters of a message code into an int
+     */
+    public static int packCode(@NonNull final String code)
+    {
+        if (code.length() != 3)
+        {
+            return -1;
+        }
+        return ((code.charAt(0) & 0xFF) << 16) | ((code.charAt(1) & 0xFF) << 8) | (code.charAt(2) & 0xFF);
+    }
+
+    /**
+     * Packs the message code of a raw frame without decoding of the frame
+     */
+    static int packCode(@NonNull final byte[] bytes, final int startIndex, final int headerSize, final int dataSize)
+    {
+        // Data: start character, model category and three code characters
+        final int offset = startIndex + headerSize + 2;
+        if (dataSize < 5 || offset + 3 > bytes.length)
+        {
+            return -1;
+        }
+        return ((bytes[offset] & 0xFF) << 16) | ((bytes[offset + 1] & 0xFF) << 8) | (bytes[offset + 2] & 0xFF);
+    }
+
     String getParameters()
     {
+        if (parameters == null && rawBytes != null)
+        {
+            parameters = (rawLength > 5) ?
+                    new String(rawBytes, rawOffset + 5, rawLength - 5, Utils.UTF_8) : "";
+        }
         return parameters;
     }
 
@@ -186,9 +308,7 @@ public class EISCPMessage
         {
             if (startIndex + MSG_START.length() + 9 <= bytes.length)
             {
-                final byte[] intBytes = new byte[]{ 0, 0, 0, 0 };
-                intBytes[3] = bytes[startIndex + MSG_START.length() + 8];
-                return ByteBuffer.wrap(intBytes).getInt();
+                return bytes[startIndex + MSG_START.length() + 8] & 0xFF;
             }
         }
         catch (Exception e)
@@ -203,7 +323,7 @@ public class EISCPMessage
         return val == EOF || val == CR || val == LF;
     }
 
-    private String getRawMessage(byte[] bytes, int startIndex) throws Exception
+    private int getRawLength(byte[] bytes, int startIndex) throws Exception
     {
         try
         {
@@ -219,20 +339,26 @@ public class EISCPMessage
                     }
                     actualLength++;
                 }
-                final byte[] stringBytes = Utils.catBuffer(bytes, startIndex + headerSize, actualLength);
-                return new String(stringBytes, Utils.UTF_8);
+                return actualLength;
             }
         }
         catch (Exception e)
         {
             throw new Exception("Can not decode raw message: " + e.getLocalizedMessage());
         }
-        return INVALID_MSG;
+        return -1;
     }
 
     byte[] getBytes()
     {
-        byte[] parametersBin = parameters.getBytes(Utils.UTF_8);
+        // Note that a pre-encoded frame is shared and shall not be changed
+        return frame != null ? frame : buildBytes();
+    }
+
+    private byte[] buildBytes()
+    {
+        final String code = getCode();
+        byte[] parametersBin = getParameters().getBytes(Utils.UTF_8);
         int dSize = 2 + code.length() + parametersBin.length + 1;
 
         if (headerSize + dSize < MIN_MSG_LENGTH)
@@ -248,13 +374,8 @@ public class EISCPMessage
             bytes[i] = (byte) MSG_START.charAt(i);
         }
 
-        // Header size
-        byte[] size = ByteBuffer.allocate(4).putInt(headerSize).array();
-        System.arraycopy(size, 0, bytes, 4, size.length);
-
-        // Data size
-        size = ByteBuffer.allocate(4).putInt(dSize).array();
-        System.arraycopy(size, 0, bytes, 8, size.length);
+        // Header size and data size
+        ByteBuffer.wrap(bytes).putInt(4, headerSize).putInt(8, dSize);
 
         // Version
         bytes[12] = (byte) version;
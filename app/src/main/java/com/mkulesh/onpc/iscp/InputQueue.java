@@ -0,0 +1,203 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import com.mkulesh.onpc.iscp.messages.AudioInformationMsg;
+import com.mkulesh.onpc.iscp.messages.JacketArtMsg;
+import com.mkulesh.onpc.iscp.messages.TimeInfoMsg;
+import com.mkulesh.onpc.utils.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Bounded queue of received messages with a conflation policy:
+ * - High-rate messages where only the last value matters (time, audio information, cover
+ * links) replace a not yet processed message with the same code, zone and source host.
+ * - All other messages, for example list items, power status or cover packets, are never lost.
+ * - If the queue is full, the channels stop reading from the socket until the state thread
+ * has processed a half of the queue, so that the receiver is throttled by the TCP flow control.
+ * Adding of a message never throws.
+ */
+class InputQueue
+{
+    // Kinds of messages where only the last value matters
+    private final static int KIND_NONE = -1;
+    private final static int KIND_TIME = 0;
+    private final static int KIND_AUDIO = 1;
+    private final static int KIND_COVER = 2;
+    private final static String[] CONFLATED_METRICS = new String[]{
+            "Input queue, conflated TimeInfoMsg",
+            "Input queue, conflated AudioInformationMsg",
+            "Input queue, conflated JacketArtMsg"
+    };
+
+    private final static class Entry
+    {
+        ISCPMessage msg;
+        final int kind;
+        final int zone;
+
+        Entry(ISCPMessage msg, int kind)
+        {
+            this.msg = msg;
+            this.kind = kind;
+            this.zone = (msg instanceof ZonedMessage) ? ((ZonedMessage) msg).zoneIndex : -1;
+        }
+
+        /**
+         * Conflation key: the kind, zone and source host of the message
+         */
+        boolean sameSlot(@NonNull final ISCPMessage other, final int otherKind)
+        {
+            return kind == otherKind
+                    && zone == ((other instanceof ZonedMessage) ? ((ZonedMessage) other).zoneIndex : -1)
+                    && msg.getPort() == other.getPort()
+                    && msg.getHost().equals(other.getHost());
+        }
+    }
+
+    private final int capacity;
+    private final Runnable onAvailable;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    // not yet processed messages that can be conflated: there are only a few of them
+    private final ArrayList<Entry> pendingSlots = new ArrayList<>();
+    private boolean full = false;
+
+    /**
+     * @param onAvailable is called if the queue was full and accepts messages again
+     */
+    InputQueue(final int capacity, @Nullable final Runnable onAvailable)
+    {
+        this.capacity = capacity;
+        this.onAvailable = onAvailable;
+    }
+
+    private static int getConflationKind(@NonNull final ISCPMessage msg)
+    {
+        if (msg instanceof TimeInfoMsg)
+        {
+            return KIND_TIME;
+        }
+        if (msg instanceof AudioInformationMsg)
+        {
+            return KIND_AUDIO;
+        }
+        if (msg instanceof JacketArtMsg)
+        {
+            // packets of a split image are parts of the same cover
+            return ((JacketArtMsg) msg).getPacketFlag() == JacketArtMsg.PacketFlag.NOT_USED ?
+                    KIND_COVER : KIND_NONE;
+        }
+        return KIND_NONE;
+    }
+
+    void add(@NonNull final ISCPMessage msg)
+    {
+        final int kind = getConflationKind(msg);
+        synchronized (entries)
+        {
+            if (kind != KIND_NONE)
+            {
+                for (int i = 0; i < pendingSlots.size(); i++)
+                {
+                    final Entry pending = pendingSlots.get(i);
+                    if (pending.sameSlot(msg, kind))
+                    {
+                        // the last value wins, but keeps the position of the replaced message
+                        pending.msg = msg;
+                        Metrics.increment(CONFLATED_METRICS[kind]);
+                        return;
+                    }
+                }
+            }
+            final Entry e = new Entry(msg, kind);
+            entries.add(e);
+            if (kind != KIND_NONE)
+            {
+                pendingSlots.add(e);
+            }
+            if (entries.size() > capacity)
+            {
+                // messages already decoded from the socket are accepted even if the queue is full
+                Metrics.increment("Input queue, overflow messages");
+            }
+            if (!full && entries.size() >= capacity)
+            {
+                full = true;
+                Metrics.increment("Input queue, full events");
+            }
+            entries.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the next message at most the given time in milliseconds, or without
+     * a limit if the time is Long.MAX_VALUE. Returns null if no message is received.
+     */
+    @Nullable
+    ISCPMessage take(final long timeout) throws InterruptedException
+    {
+        boolean available = false;
+        final Entry e;
+        synchronized (entries)
+        {
+            final long endTime = timeout == Long.MAX_VALUE ? 0 : System.currentTimeMillis() + timeout;
+            while (entries.isEmpty())
+            {
+                if (endTime == 0)
+                {
+                    entries.wait();
+                    continue;
+                }
+                final long wait = endTime - System.currentTimeMillis();
+                if (wait <= 0)
+                {
+                    return null;
+                }
+                entries.wait(wait);
+            }
+            e = entries.poll();
+            if (e.kind != KIND_NONE)
+            {
+                pendingSlots.remove(e);
+            }
+            if (full && entries.size() <= capacity / 2)
+            {
+                full = false;
+                available = true;
+            }
+        }
+        if (available && onAvailable != null)
+        {
+            onAvailable.run();
+        }
+        return e.msg;
+    }
+
+    /**
+     * The channels do not read new data while the queue is full
+     */
+    boolean isFull()
+    {
+        synchronized (entries)
+        {
+            return full;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import java.util.ArrayList;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Sparse index of the loaded items of a list that is requested window by window.
+ * The loaded items are stored as sorted, non-overlapping ranges [start, end).
+ */
+class ListRangeIndex
+{
+    private final static class Range
+    {
+        int start, end;
+
+        Range(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final ArrayList<Range> ranges = new ArrayList<>();
+
+    void clear()
+    {
+        ranges.clear();
+    }
+
+    boolean isEmpty()
+    {
+        return ranges.isEmpty();
+    }
+
+    void add(final int start, final int end)
+    {
+        if (start >= end)
+        {
+            return;
+        }
+        int s = start, e = end;
+        int i = 0;
+        // skip ranges that end before the new one
+        while (i < ranges.size() && ranges.get(i).end < s)
+        {
+            i++;
+        }
+        // merge all ranges that overlap or touch the new one
+        while (i < ranges.size() && ranges.get(i).start <= e)
+        {
+            final Range r = ranges.remove(i);
+            s = Math.min(s, r.start);
+            e = Math.max(e, r.end);
+        }
+        ranges.add(i, new Range(s, e));
+    }
+
+    boolean contains(final int start, final int end)
+    {
+        for (Range r : ranges)
+        {
+            if (r.start <= start && end <= r.end)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first index starting from the given one that is not loaded yet
+     */
+    int firstMissing(final int from)
+    {
+        int idx = from;
+        for (Range r : ranges)
+        {
+            if (r.start > idx)
+            {
+                break;
+            }
+            idx = Math.max(idx, r.end);
+        }
+        return idx;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (Range r : ranges)
+        {
+            sb.append(sb.length() == 0 ? "" : ",").append("[").append(r.start).append(",").append(r.end).append(")");
+        }
+        return sb.toString();
+    }
+}
@@ -28,6 +28,8 @@ public interface MessageChannel extends ConnectionIf
 
     void addAllowedMessage(final String code);
 
+    void setModel(@NonNull final String model);
+
     ProtoType getProtoType();
 
     boolean connectToServer(@NonNull String host, int port);
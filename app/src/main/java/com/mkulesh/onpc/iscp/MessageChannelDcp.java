@@ -16,6 +16,7 @@ package com.mkulesh.onpc.iscp;
 
 import android.os.StrictMode;
 
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.mkulesh.onpc.iscp.messages.DCPMessageFactory;
 import com.mkulesh.onpc.iscp.messages.DcpReceiverInformationMsg;
@@ -23,23 +24,20 @@ import com.mkulesh.onpc.iscp.messages.OperationCommandMsg;
 import com.mkulesh.onpc.iscp.messages.TimeInfoMsg;
 import com.mkulesh.onpc.utils.AppTask;
 import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
 import com.mkulesh.onpc.utils.Utils;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
 import androidx.annotation.NonNull;
 
-public class MessageChannelDcp extends AppTask implements Runnable, MessageChannel
+public class MessageChannelDcp extends AppTask implements MessageReactor.Handler, MessageChannel
 {
     private final static String DCP_FORM_IPHONE_APP = "formiPhoneApp";
     private final static String DCP_APP_COMMAND1 = "<cmd id=\"1\">";
@@ -51,24 +49,38 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
     private final static int CR = 0x0D;
     private final static int LF = 0x0A;
 
+    // Maximal number of converted DCP commands that wait for sending
+    private final static int DCP_PENDING_LIMIT = 16;
+
+    // Maximal number of AppCommand entries that are sent within one request
+    private final static int DCP_APP_COMMAND_BATCH = 5;
+
     // connection state
     private final ConnectionState connectionState;
-    private final OnpcSocket dcpSocket = new OnpcSocket();
-    private final OnpcSocket heosSocket = new OnpcSocket(); // HEOS connection is optional
+    private final MessageReactor reactor;
+    private final OnpcSocket dcpSocket;
+    private final OnpcSocket heosSocket; // HEOS connection is optional
+    private DcpHttpClient httpClient = null;
 
     // input-output queues
-    private final BlockingQueue<EISCPMessage> outputQueue = new ArrayBlockingQueue<>(QUEUE_SIZE, true);
-    private final BlockingQueue<ISCPMessage> inputQueue;
+    private final OutputQueue outputQueue = new OutputQueue();
+    private final InputQueue inputQueue;
 
     // message handling
     private final DCPMessageFactory dcpMessageFactory = new DCPMessageFactory();
     private Integer heosPid = null;
 
-    MessageChannelDcp(final int zone, final ConnectionState connectionState, final BlockingQueue<ISCPMessage> inputQueue)
+    // Output data processing
+    private final DcpPacer pacer = new DcpPacer();
+
+    MessageChannelDcp(final int zone, final ConnectionState connectionState, final MessageReactor reactor,
+                      final InputQueue inputQueue)
     {
         super(false);
-        setBackgroundTask(this, this.getClass().getSimpleName());
         this.connectionState = connectionState;
+        this.reactor = reactor;
+        dcpSocket = new OnpcSocket(reactor);
+        heosSocket = new OnpcSocket(reactor);
         this.inputQueue = inputQueue;
         StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
         StrictMode.setThreadPolicy(policy);
@@ -101,6 +113,12 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
         // nothing to do
     }
 
+    @Override
+    public void setModel(@NonNull final String model)
+    {
+        pacer.setModel(model);
+    }
+
     @Override
     public ProtoType getProtoType()
     {
@@ -108,90 +126,135 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
     }
 
     @Override
-    public void run()
+    public void start()
     {
+        if (isActive())
+        {
+            return;
+        }
+        super.start();
         Logging.info(this, "started " + getHostAndPort() + ":" + this);
+        outputQueue.setName(getHostAndPort());
+        httpClient = new DcpHttpClient(getHost());
+        reactor.register(this, dcpSocket.getSocket(), heosSocket.getSocket());
+    }
 
-        // Output data processing
-        Long lastSendTime = null;
-        final long DCP_SEND_DELAY = 75; // Send the COMMAND in 50ms or more intervals.
-        final ArrayList<String> dcpOutputBuffer = new ArrayList<>();
+    @Override
+    public void stop()
+    {
+        super.stop();
+        reactor.wakeup();
+    }
 
-        while (true)
+    @Override
+    public long onLoop(long currTime)
+    {
+        if (isCancelled())
         {
-            try
+            Logging.info(this, "cancelled " + getHostAndPort());
+            return -1;
+        }
+        if (!connectionState.isNetwork())
+        {
+            Logging.info(this, "no network");
+            return -1;
+        }
+        if (dcpSocket.getSocket() == null)
+        {
+            Logging.info(this, "not connected");
+            return -1;
+        }
+
+        // process output messages
+        fillPacer(currTime);
+        for (DcpPacer.Route route : DcpPacer.Route.values())
+        {
+            String rawCmd;
+            while ((rawCmd = pacer.take(route, currTime)) != null)
             {
-                if (isCancelled())
-                {
-                    Logging.info(this, "cancelled " + getHostAndPort());
-                    break;
-                }
+                sendDcpCommand(rawCmd, currTime);
+                fillPacer(currTime);
+            }
+        }
+        final long outputWait = pacer.size() < DCP_PENDING_LIMIT ? outputQueue.getWaitTime(currTime) : Long.MAX_VALUE;
+        return Math.min(outputWait, pacer.getWaitTime(currTime));
+    }
 
-                if (!connectionState.isNetwork())
-                {
-                    Logging.info(this, "no network");
-                    break;
-                }
+    /**
+     * Converts the ready output messages into DCP commands. The number of converted commands
+     * is limited, so that the priorities of the output queue are still respected.
+     */
+    private void fillPacer(long currTime)
+    {
+        while (pacer.size() < DCP_PENDING_LIMIT && outputQueue.isReady(currTime))
+        {
+            for (String rawCmd : dcpMessageFactory.convertOutputMsg(outputQueue.poll(currTime), getHost()))
+            {
+                pacer.add(getRoute(rawCmd), rawCmd);
+            }
+        }
+    }
 
-                // process DCP input messages
-                if (dcpSocket.readData((ByteBuffer b) -> processInputData(b, dcpSocket)) < 0)
-                {
-                    break;
-                }
+    @NonNull
+    private static DcpPacer.Route getRoute(@NonNull final String rawCmd)
+    {
+        if (rawCmd.startsWith(DCP_FORM_IPHONE_APP)
+                || rawCmd.startsWith(DCP_APP_COMMAND1) || rawCmd.startsWith(DCP_APP_COMMAND3))
+        {
+            return DcpPacer.Route.HTTP;
+        }
+        return rawCmd.startsWith(DCP_HEOS_REQUEST) ? DcpPacer.Route.HEOS : DcpPacer.Route.TELNET;
+    }
 
-                // process HEOS input messages
-                if (heosSocket.getSocket() != null)
-                {
-                    if (heosSocket.readData((ByteBuffer b) -> processInputData(b, heosSocket)) < 0)
-                    {
-                        break;
-                    }
-                }
+    private void sendDcpCommand(@NonNull final String rawCmd, long currTime)
+    {
+        if (rawCmd.startsWith(DCP_FORM_IPHONE_APP))
+        {
+            sendDcpFormIphoneApp(rawCmd);
+        }
+        else if (rawCmd.startsWith(DCP_APP_COMMAND1))
+        {
+            sendDcpAppCommand(collectAppCommands(rawCmd, DCP_APP_COMMAND1, currTime), "AppCommand.xml");
+        }
+        else if (rawCmd.startsWith(DCP_APP_COMMAND3))
+        {
+            sendDcpAppCommand(collectAppCommands(rawCmd, DCP_APP_COMMAND3, currTime), "AppCommand0300.xml");
+        }
+        else if (rawCmd.startsWith(DCP_HEOS_REQUEST))
+        {
+            sendDcpHeosRequest(rawCmd);
+        }
+        else
+        {
+            sendDcpRawMsg(rawCmd);
+        }
+    }
 
-                // process output messages
-                // DCP documentation: Send the COMMAND in 50ms or more intervals.
-                long currTime = Calendar.getInstance().getTimeInMillis();
-                if (lastSendTime == null || currTime - lastSendTime >= DCP_SEND_DELAY)
-                {
-                    if (!dcpOutputBuffer.isEmpty())
-                    {
-                        final String rawCmd = dcpOutputBuffer.remove(0);
-                        if (rawCmd.startsWith(DCP_FORM_IPHONE_APP))
-                        {
-                            sendDcpFormIphoneApp(rawCmd);
-                        }
-                        else if (rawCmd.startsWith(DCP_APP_COMMAND1))
-                        {
-                            sendDcpAppCommand(rawCmd, "AppCommand.xml");
-                        }
-                        else if (rawCmd.startsWith(DCP_APP_COMMAND3))
-                        {
-                            sendDcpAppCommand(rawCmd, "AppCommand0300.xml");
-                        }
-                        else if (rawCmd.startsWith(DCP_HEOS_REQUEST))
-                        {
-                            sendDcpHeosRequest(rawCmd);
-                        }
-                        else
-                        {
-                            sendDcpRawMsg(rawCmd);
-                        }
-                        lastSendTime = currTime;
-                    }
-                    else
-                    {
-                        final EISCPMessage m = outputQueue.poll();
-                        dcpOutputBuffer.addAll(dcpMessageFactory.convertOutputMsg(m, getHost()));
-                    }
-                }
-            }
-            catch (Exception e)
-            {
-                Logging.info(this, "interrupted " + getHostAndPort() + ": " + e.getLocalizedMessage());
-                break;
-            }
+    @Override
+    public int getInterestOps(@NonNull SocketChannel socket)
+    {
+        // Reading is suspended while the state thread has not processed the received messages
+        return inputQueue.isFull() ? 0 : SelectionKey.OP_READ;
+    }
+
+    @Override
+    public void onReady(@NonNull SelectionKey key) throws Exception
+    {
+        if (!key.isReadable())
+        {
+            return;
+        }
+        // process DCP or HEOS input messages
+        final OnpcSocket s = key.channel() == heosSocket.getSocket() ? heosSocket : dcpSocket;
+        if (s.readData((ByteBuffer b) -> processInputData(b, s)) < 0)
+        {
+            throw new Exception("host " + s.getHostAndPort() + " disconnected");
         }
+    }
 
+    @Override
+    public void onClosed()
+    {
         try
         {
             dcpSocket.close();
@@ -201,11 +264,44 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
         {
             // nothing to do
         }
+        if (httpClient != null)
+        {
+            httpClient.stop();
+        }
         super.stop();
         Logging.info(this, "stopped " + getHostAndPort() + ":" + this);
         inputQueue.add(new OperationCommandMsg(OperationCommandMsg.Command.DOWN));
     }
 
+    /**
+     * AppCommand.xml accepts several cmd elements in one request: the given command is
+     * merged with the following commands for the same endpoint that are already waiting
+     * in the output queue
+     */
+    @NonNull
+    private String collectAppCommands(@NonNull final String rawCmd, @NonNull final String prefix, long currTime)
+    {
+        final StringBuilder cmd = new StringBuilder(rawCmd);
+        int count = 1;
+        while (count < DCP_APP_COMMAND_BATCH)
+        {
+            fillPacer(currTime);
+            final String next = pacer.peek(DcpPacer.Route.HTTP);
+            if (next == null || !next.startsWith(prefix))
+            {
+                break;
+            }
+            cmd.append(pacer.poll(DcpPacer.Route.HTTP));
+            count++;
+        }
+        if (count > 1)
+        {
+            Metrics.increment("DCP AppCommand, merged requests");
+            Metrics.set("DCP AppCommand, last batch size", count);
+        }
+        return cmd.toString();
+    }
+
     private void sendDcpFormIphoneApp(final String rawCmd)
     {
         final String shortCmd = rawCmd.replace(" ", "%20");
@@ -213,7 +309,7 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
         {
             final String fullCmd = ISCPMessage.getDcpGoformUrl(getHost(), DCP_HTTP_PORT, shortCmd);
             Logging.info(this, "DCP formiPhoneApp request: " + fullCmd);
-            Utils.getUrlData(new URL(fullCmd), false);
+            httpClient.get(new URL(fullCmd));
         }
         catch (Exception ex)
         {
@@ -226,20 +322,9 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
         try
         {
             final String json = "{\"body\": \"" + ISCPMessage.getDcpAppCommand(rawCmd) + "\"}";
-            final byte[] out = json.getBytes(Utils.UTF_8);
-
             final URL url = new URL(ISCPMessage.getDcpGoformUrl(getHost(), DCP_HTTP_PORT, endpoint));
-            final URLConnection con = url.openConnection();
-            final HttpURLConnection http = (HttpURLConnection) con;
-            http.setRequestMethod("POST");
-            http.setDoOutput(true);
-            http.setFixedLengthStreamingMode(out.length);
-            http.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
-            http.connect();
-            OutputStream os = http.getOutputStream();
-            os.write(out);
-            os.flush();
             Logging.info(this, "DCP AppCommand POST request: " + url + json);
+            httpClient.post(url, json.getBytes(Utils.UTF_8));
         }
         catch (Exception ex)
         {
@@ -367,12 +452,26 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
         final int remaining = Math.max(0, bytes.length - expectedSize - 1);
 
         boolean processed = false;
+        final ArrayList<ISCPMessage> messages;
         if (dcpMsg.startsWith(DCP_HEOS_RESPONSE))
         {
-            processed = processHeosMsg(dcpMsg);
+            // HEOS message is parsed once and the document is shared by all handlers
+            DocumentContext heosMsg = null;
+            try
+            {
+                heosMsg = JsonPath.parse(dcpMsg);
+            }
+            catch (Exception ex)
+            {
+                Logging.info(this, "DCP HEOS error: " + ex.getLocalizedMessage());
+            }
+            processed = heosMsg != null && processHeosMsg(heosMsg);
+            messages = heosMsg != null ? dcpMessageFactory.convertHeosMsg(heosMsg, heosPid) : new ArrayList<>();
+        }
+        else
+        {
+            messages = dcpMessageFactory.convertInputMsg(dcpMsg, heosPid);
         }
-
-        final ArrayList<ISCPMessage> messages = dcpMessageFactory.convertInputMsg(dcpMsg, heosPid);
         final boolean logIgnored = messages.size() == 1 && messages.get(0) instanceof TimeInfoMsg;
 
         if (!logIgnored)
@@ -396,17 +495,17 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
         return remaining;
     }
 
-    private boolean processHeosMsg(String heosMsg)
+    private boolean processHeosMsg(@NonNull DocumentContext heosMsg)
     {
         try
         {
-            final String cmd = JsonPath.read(heosMsg, "$.heos.command");
+            final String cmd = heosMsg.read("$.heos.command");
             // Device PID
             if (heosPid == null)
             {
                 if ("player/get_players".equals(cmd))
                 {
-                    heosPid = JsonPath.read(heosMsg, "$.payload[0].pid");
+                    heosPid = heosMsg.read("$.payload[0].pid");
                     Logging.info(this, "DCP HEOS PID received: " + heosPid);
                     return true;
                 }
@@ -415,7 +514,7 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
             if (heosPid != null && "event/player_now_playing_changed".equals(cmd))
             {
                 final Map<String, String> tokens =
-                        ISCPMessage.parseHeosMessage(JsonPath.read(heosMsg, "$.heos.message"));
+                        ISCPMessage.parseHeosMessage(heosMsg.read("$.heos.message"));
                 final String pidStr = tokens.get("pid");
                 if (pidStr != null && heosPid.equals(Integer.valueOf(pidStr)))
                 {
@@ -435,5 +534,6 @@ public class MessageChannelDcp extends AppTask implements Runnable, MessageChann
     public void sendMessage(EISCPMessage eiscpMessage)
     {
         outputQueue.add(eiscpMessage);
+        reactor.wakeup();
     }
 }
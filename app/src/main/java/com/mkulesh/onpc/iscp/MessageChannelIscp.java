@@ -20,50 +20,58 @@ import android.widget.Toast;
 import com.mkulesh.onpc.R;
 import com.mkulesh.onpc.iscp.messages.MessageFactory;
 import com.mkulesh.onpc.iscp.messages.OperationCommandMsg;
+import com.mkulesh.onpc.iscp.messages.TimeInfoMsg;
 import com.mkulesh.onpc.utils.AppTask;
 import com.mkulesh.onpc.utils.Logging;
 import com.mkulesh.onpc.utils.Utils;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.Calendar;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Arrays;
 
 import androidx.annotation.NonNull;
 
-public class MessageChannelIscp extends AppTask implements Runnable, MessageChannel
+public class MessageChannelIscp extends AppTask implements MessageReactor.Handler, MessageChannel
 {
     private final static long CONNECTION_TIMEOUT = 5000;
     private final static int SOCKET_BUFFER = 4 * 1024;
 
     // connection state
     private final ConnectionState connectionState;
+    private final MessageReactor reactor;
     private SocketChannel socket = null;
+    // Maximal number of bytes collected from the output queue into one socket write
+    private final int writeBudget;
+    private final ByteBuffer[] writeBuffers;
+    private int writeIndex = 0, writeCount = 0;
+    private final EISCPDecoder decoder = new EISCPDecoder(SOCKET_BUFFER, this::processFrame);
 
     // connected host (ConnectionIf)
     private String host = ConnectionIf.EMPTY_HOST;
     private int port = ConnectionIf.EMPTY_PORT;
 
     // input-output queues
-    private final BlockingQueue<EISCPMessage> outputQueue = new ArrayBlockingQueue<>(QUEUE_SIZE, true);
-    private final BlockingQueue<ISCPMessage> inputQueue;
+    private final OutputQueue outputQueue = new OutputQueue();
+    private final InputQueue inputQueue;
 
     // message handling
-    private byte[] packetJoinBuffer = null;
     private int messageId = 0;
-    private final Set<String> allowedMessages = new HashSet<>();
+    // Sorted packed codes of allowed messages; all messages are allowed if empty.
+    // The array is replaced on change since it is read in the reactor thread
+    private volatile int[] allowedCodes = new int[0];
 
-    MessageChannelIscp(final ConnectionState connectionState, final BlockingQueue<ISCPMessage> inputQueue)
+    MessageChannelIscp(final ConnectionState connectionState, final MessageReactor reactor,
+                       final InputQueue inputQueue, final int writeBudget)
     {
         super(false);
-        setBackgroundTask(this, this.getClass().getSimpleName());
         this.connectionState = connectionState;
+        this.reactor = reactor;
         this.inputQueue = inputQueue;
+        this.writeBudget = Math.max(1, writeBudget);
+        // the budget can be filled by the shortest messages
+        writeBuffers = new ByteBuffer[this.writeBudget / EISCPMessage.MIN_MSG_LENGTH + 1];
         StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
         StrictMode.setThreadPolicy(policy);
     }
@@ -91,7 +99,21 @@ public class MessageChannelIscp extends AppTask implements Runnable, MessageChan
     @Override
     public void addAllowedMessage(final String code)
     {
-        allowedMessages.add(code);
+        final int packed = EISCPMessage.packCode(code);
+        final int[] codes = allowedCodes;
+        if (Arrays.binarySearch(codes, packed) < 0)
+        {
+            final int[] newCodes = Arrays.copyOf(codes, codes.length + 1);
+            newCodes[codes.length] = packed;
+            Arrays.sort(newCodes);
+            allowedCodes = newCodes;
+        }
+    }
+
+    @Override
+    public void setModel(@NonNull final String model)
+    {
+        // nothing to do
     }
 
     @Override
@@ -101,71 +123,139 @@ public class MessageChannelIscp extends AppTask implements Runnable, MessageChan
     }
 
     @Override
-    public void run()
+    public void start()
     {
+        if (isActive())
+        {
+            return;
+        }
+        super.start();
         Logging.info(this, "started " + getHostAndPort() + ":" + this);
+        outputQueue.setName(getHostAndPort());
+        reactor.register(this, socket);
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(SOCKET_BUFFER);
-        while (true)
+    @Override
+    public void stop()
+    {
+        super.stop();
+        reactor.wakeup();
+    }
+
+    @Override
+    public long onLoop(long currTime)
+    {
+        if (isCancelled())
         {
-            try
+            Logging.info(this, "cancelled " + getHostAndPort());
+            return -1;
+        }
+        if (!connectionState.isNetwork())
+        {
+            Logging.info(this, "no network");
+            return -1;
+        }
+        if (socket == null)
+        {
+            Logging.info(this, "not connected");
+            return -1;
+        }
+        // A message that is ready to be sent is handled by OP_WRITE;
+        // otherwise, wait for the rate limit of the background lane
+        final long waitTime = outputQueue.getWaitTime(currTime);
+        return waitTime > 0 ? waitTime : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int getInterestOps(@NonNull SocketChannel s)
+    {
+        // OP_WRITE is only requested while there is something to send, and OP_READ
+        // is suspended while the state thread has not processed the received messages
+        final int readOps = inputQueue.isFull() ? 0 : SelectionKey.OP_READ;
+        return isWritePending() ? readOps | SelectionKey.OP_WRITE : readOps;
+    }
+
+    @Override
+    public void onReady(@NonNull SelectionKey key) throws Exception
+    {
+        // process input messages
+        if (key.isReadable())
+        {
+            int readedSize = socket.read(decoder.getInputBuffer());
+            if (readedSize < 0)
             {
-                if (isCancelled())
+                throw new Exception("host " + getHostAndPort() + " disconnected");
+            }
+            else if (readedSize > 0)
+            {
+                try
                 {
-                    Logging.info(this, "cancelled " + getHostAndPort());
-                    break;
+                    decoder.decode();
                 }
-
-                if (!connectionState.isNetwork())
+                catch (Exception e)
                 {
-                    Logging.info(this, "no network");
-                    break;
+                    throw new Exception("error: process input data: " + e.getLocalizedMessage());
                 }
+            }
+        }
+
+        // process output messages
+        if (key.isValid() && key.isWritable())
+        {
+            writeOutputData();
+        }
+    }
 
-                // process input messages
-                buffer.clear();
-                int readedSize = socket.read(buffer);
-                if (readedSize < 0)
+    private boolean isWritePending()
+    {
+        return writeIndex < writeCount || outputQueue.isReady(System.currentTimeMillis());
+    }
+
+    private void writeOutputData() throws IOException
+    {
+        if (writeIndex == writeCount)
+        {
+            // All pending messages within the byte budget are sent in one gathering write
+            writeIndex = 0;
+            writeCount = 0;
+            int size = 0;
+            final long currTime = System.currentTimeMillis();
+            while (writeCount < writeBuffers.length && size < writeBudget)
+            {
+                final EISCPMessage m = outputQueue.poll(currTime);
+                if (m == null)
                 {
-                    Logging.info(this, "host " + getHostAndPort() + " disconnected");
                     break;
                 }
-                else if (readedSize > 0)
+                final byte[] bytes = m.getBytes();
+                if (bytes != null)
                 {
-                    try
-                    {
-                        processInputData(buffer);
-                    }
-                    catch (Exception e)
-                    {
-                        Logging.info(this, "error: process input data: " + e.getLocalizedMessage());
-                        break;
-                    }
-                }
-
-                // process output messages
-                EISCPMessage m = outputQueue.poll();
-                if (m != null)
-                {
-                    final byte[] bytes = m.getBytes();
-                    if (bytes != null)
-                    {
-                        final ByteBuffer messageBuffer = ByteBuffer.wrap(bytes);
-                        Logging.info(this, ">> sending: " + m + " to " + getHostAndPort());
-                        socket.write(messageBuffer);
-                    }
+                    Logging.info(this, ">> sending: " + m + " to " + getHostAndPort());
+                    writeBuffers[writeCount++] = ByteBuffer.wrap(bytes);
+                    size += bytes.length;
                 }
             }
-            catch (Exception e)
+        }
+        if (writeIndex < writeCount)
+        {
+            // In case of partial write, the remaining data are sent when the socket is writable again
+            socket.write(writeBuffers, writeIndex, writeCount - writeIndex);
+            while (writeIndex < writeCount && !writeBuffers[writeIndex].hasRemaining())
             {
-                Logging.info(this, "interrupted " + getHostAndPort() + ": " + e.getLocalizedMessage());
-                break;
+                writeBuffers[writeIndex++] = null;
             }
         }
+    }
 
+    @Override
+    public void onClosed()
+    {
         try
         {
-            socket.close();
+            if (socket != null)
+            {
+                socket.close();
+            }
         }
         catch (IOException e)
         {
@@ -183,18 +273,7 @@ public class MessageChannelIscp extends AppTask implements Runnable, MessageChan
         this.port = port;
         try
         {
-            socket = SocketChannel.open();
-            socket.configureBlocking(false);
-            socket.connect(new InetSocketAddress(host, port));
-            final long startTime = Calendar.getInstance().getTimeInMillis();
-            while (!socket.finishConnect())
-            {
-                final long currTime = Calendar.getInstance().getTimeInMillis();
-                if (currTime > startTime + CONNECTION_TIMEOUT)
-                {
-                    throw new Exception("connection timeout");
-                }
-            }
+            socket = reactor.connect(host, port, CONNECTION_TIMEOUT);
             if (socket.socket().getInetAddress() != null
                     && socket.socket().getInetAddress().getHostAddress() != null)
             {
@@ -227,113 +306,54 @@ public class MessageChannelIscp extends AppTask implements Runnable, MessageChan
         return false;
     }
 
-    private void processInputData(ByteBuffer buffer)
+    private void processFrame(@NonNull byte[] bytes, int startIndex, int hSize, int dSize)
     {
-        buffer.flip();
-        final int incoming = buffer.remaining();
-        byte[] bytes;
+        messageId++;
 
-        if (packetJoinBuffer == null)
+        // Not allowed messages are skipped using the code bytes of the frame, before any decoding
+        final int[] codes = allowedCodes;
+        if (codes.length > 0 && Arrays.binarySearch(codes, EISCPMessage.packCode(bytes, startIndex, hSize, dSize)) < 0)
         {
-            // A new buffer - just copy it
-            bytes = new byte[incoming];
-            buffer.get(bytes);
+            return;
         }
-        else
+
+        // try to convert raw message. In case of any errors, the message is skipped
+        EISCPMessage raw;
+        try
         {
-            // Remaining part of existing buffer - join it
-            final int s1 = packetJoinBuffer.length;
-            bytes = new byte[s1 + incoming];
-            System.arraycopy(packetJoinBuffer, 0, bytes, 0, s1);
-            buffer.get(bytes, s1, incoming);
-            packetJoinBuffer = null;
+            raw = new EISCPMessage(messageId, bytes, startIndex, hSize, dSize);
         }
-
-        int remaining = bytes.length;
-        while (remaining > 0)
+        catch (Exception e)
         {
-            final int startIndex = EISCPMessage.getMsgStartIndex(bytes);
-            if (startIndex < 0)
-            {
-                Logging.info(this, "<< error: message start marker not found. " + remaining + "B ignored");
-                return;
-            }
-            else if (startIndex > 0)
-            {
-                Logging.info(this, "<< error: unexpected position of message start: " + startIndex + ", remaining=" + remaining + "B");
-            }
-
-            // convert header and data sizes
-            int hSize, dSize;
-            try
-            {
-                hSize = EISCPMessage.getHeaderSize(bytes, startIndex);
-                dSize = EISCPMessage.getDataSize(bytes, startIndex);
-            }
-            catch (Exception e)
-            {
-                Logging.info(this, "<< error: invalid expected size: " + e.getLocalizedMessage());
-                packetJoinBuffer = null;
-                return;
-            }
-
-            // inspect expected size
-            final int expectedSize = hSize + dSize;
-            if (hSize < 0 || dSize < 0 || expectedSize > remaining)
-            {
-                packetJoinBuffer = bytes;
-                return;
-            }
-
-            // try to convert raw message. In case of any errors, skip expectedSize
-            EISCPMessage raw = null;
-            try
-            {
-                messageId++;
-                raw = new EISCPMessage(messageId, bytes, startIndex, hSize, dSize);
-            }
-            catch (Exception e)
-            {
-                remaining = Math.max(0, bytes.length - expectedSize);
-                Logging.info(this, "<< error: invalid raw message: " + e.getLocalizedMessage() + ", remaining=" + remaining + "B");
-            }
+            Logging.info(this, "<< error: invalid raw message: " + e.getLocalizedMessage());
+            return;
+        }
 
-            if (raw != null)
+        try
+        {
+            if (!raw.isCode(TimeInfoMsg.CODE))
             {
-                remaining = Math.max(0, bytes.length - raw.getMsgSize());
-                try
-                {
-                    final boolean ignored = !allowedMessages.isEmpty() && !allowedMessages.contains(raw.getCode());
-                    if (!ignored)
-                    {
-                        if (!"NTM".equals(raw.getCode()))
-                        {
-                            Logging.info(this, "<< new message " + raw.getCode()
-                                    + " from " + getHostAndPort()
-                                    + ", size=" + raw.getMsgSize()
-                                    + "B, remaining=" + remaining + "B");
-                        }
-                        ISCPMessage msg = MessageFactory.create(raw);
-                        msg.setHostAndPort(this);
-                        inputQueue.add(msg);
-                    }
-                }
-                catch (Exception e)
-                {
-                    Logging.info(this, "<< error: ignored: " + e.getLocalizedMessage() + ": " + raw);
-                }
+                Logging.info(this, "<< new message " + raw.getCode()
+                        + " from " + getHostAndPort()
+                        + ", size=" + raw.getMsgSize() + "B");
             }
-
-            if (remaining > 0)
+            final ISCPMessage msg = MessageFactory.create(raw);
+            if (msg != null)
             {
-                bytes = Utils.catBuffer(bytes, bytes.length - remaining, remaining);
+                msg.setHostAndPort(this);
+                inputQueue.add(msg);
             }
         }
+        catch (Exception e)
+        {
+            Logging.info(this, "<< error: ignored: " + e.getLocalizedMessage() + ": " + raw);
+        }
     }
 
     @Override
     public void sendMessage(EISCPMessage eiscpMessage)
     {
         outputQueue.add(eiscpMessage);
+        reactor.wakeup();
     }
 }
@@ -0,0 +1,366 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import com.mkulesh.onpc.utils.AppTask;
+import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
+import com.mkulesh.onpc.utils.Utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A single NIO thread that owns the sockets of the primary and all multiroom message channels
+ */
+public class MessageReactor extends AppTask implements Runnable
+{
+    private final static long SELECT_TIMEOUT = 1000;
+
+    public interface Handler
+    {
+        /**
+         * Called in the reactor thread before each select. Returns the maximal time in milliseconds
+         * the handler can wait for the next event, or a negative value if the handler shall be closed
+         */
+        long onLoop(long currTime);
+
+        int getInterestOps(@NonNull SocketChannel socket);
+
+        void onReady(@NonNull SelectionKey key) throws Exception;
+
+        void onClosed();
+    }
+
+    private static class Registration
+    {
+        final Handler handler;
+        final SocketChannel[] sockets;
+
+        Registration(Handler handler, SocketChannel[] sockets)
+        {
+            this.handler = handler;
+            this.sockets = sockets;
+        }
+    }
+
+    private volatile Selector selector = null;
+    private final ConcurrentLinkedQueue<Registration> pending = new ConcurrentLinkedQueue<>();
+    private final ArrayList<Handler> handlers = new ArrayList<>();
+
+    // Selectors of connect attempts that are currently in progress
+    private final Set<Selector> connectSelectors = new HashSet<>();
+    private final AtomicBoolean connectCancelled = new AtomicBoolean(false);
+
+    MessageReactor()
+    {
+        super(false);
+        setBackgroundTask(this, this.getClass().getSimpleName());
+    }
+
+    /**
+     * Adds a handler and its sockets to the reactor. Can be called from any thread.
+     */
+    void register(@NonNull final Handler handler, @NonNull final SocketChannel... sockets)
+    {
+        pending.add(new Registration(handler, sockets));
+        wakeup();
+    }
+
+    /**
+     * Interrupts the current select, for example if a handler has new output data
+     */
+    void wakeup()
+    {
+        final Selector s = selector;
+        if (s != null)
+        {
+            s.wakeup();
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        super.stop();
+        wakeup();
+    }
+
+    /**
+     * Opens a non-blocking socket channel and waits for the OP_CONNECT readiness within given timeout.
+     * A socket already connected by the ConnectionRace is taken over without a new connect.
+     * The connect is performed in the calling thread and can be cancelled using cancelConnects().
+     */
+    @NonNull
+    SocketChannel connect(@NonNull final String host, final int port, final long timeout) throws Exception
+    {
+        final String hostAndPort = Utils.ipToString(host, port);
+        final long startTime = System.currentTimeMillis();
+        final SocketChannel raced = ConnectionRace.takeSocket(hostAndPort);
+        if (raced != null)
+        {
+            Logging.info(this, "connected to " + hostAndPort + " by the connection race");
+            return raced;
+        }
+        final SocketChannel socket = SocketChannel.open();
+        Selector connectSelector = null;
+        try
+        {
+            socket.configureBlocking(false);
+            if (!socket.connect(new InetSocketAddress(host, port)))
+            {
+                connectSelector = Selector.open();
+                socket.register(connectSelector, SelectionKey.OP_CONNECT);
+                synchronized (connectSelectors)
+                {
+                    connectSelectors.add(connectSelector);
+                }
+                while (!socket.finishConnect())
+                {
+                    if (connectCancelled.get())
+                    {
+                        throw new Exception("connection cancelled");
+                    }
+                    final long remaining = startTime + timeout - System.currentTimeMillis();
+                    if (remaining <= 0)
+                    {
+                        throw new Exception("connection timeout");
+                    }
+                    connectSelector.select(remaining);
+                    connectSelector.selectedKeys().clear();
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            Metrics.increment("Connect failures " + hostAndPort);
+            socket.close();
+            throw e;
+        }
+        finally
+        {
+            if (connectSelector != null)
+            {
+                synchronized (connectSelectors)
+                {
+                    connectSelectors.remove(connectSelector);
+                }
+                // Closing of the selector also deregisters the socket,
+                // so that it can be registered in the reactor selector
+                connectSelector.close();
+            }
+        }
+        final long latency = System.currentTimeMillis() - startTime;
+        Logging.info(this, "connected to " + hostAndPort + " in " + latency + "ms");
+        Metrics.set("Connect latency " + hostAndPort + ", ms", latency);
+        return socket;
+    }
+
+    /**
+     * Interrupts all connect attempts that are in progress and rejects further attempts.
+     * Reaches the multiroom connects; the primary connect runs in the StateManager
+     * constructor and is only bounded by its timeout.
+     */
+    void cancelConnects()
+    {
+        connectCancelled.set(true);
+        synchronized (connectSelectors)
+        {
+            for (Selector s : connectSelectors)
+            {
+                s.wakeup();
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        Logging.info(this, "started: " + this);
+        // The selector is opened by the reactor thread: if the reactor is never started,
+        // for example since the connection failed, no selector is left open
+        try
+        {
+            selector = Selector.open();
+        }
+        catch (IOException e)
+        {
+            Logging.info(this, "cannot open selector: " + e.getLocalizedMessage());
+        }
+        final Metrics.RateCounter loopRate = new Metrics.RateCounter("Reactor loop rate, 1/s");
+
+        while (selector != null)
+        {
+            try
+            {
+                if (isCancelled())
+                {
+                    Logging.info(this, "cancelled");
+                    break;
+                }
+
+                processRegistrations();
+
+                long timeout = SELECT_TIMEOUT;
+                final long currTime = System.currentTimeMillis();
+                for (Handler h : new ArrayList<>(handlers))
+                {
+                    // an error of a handler only closes this handler, the other channels remain
+                    long waitTime;
+                    try
+                    {
+                        waitTime = h.onLoop(currTime);
+                    }
+                    catch (Exception e)
+                    {
+                        Logging.info(this, "handler loop error: " + e.getLocalizedMessage());
+                        waitTime = -1;
+                    }
+                    if (waitTime < 0)
+                    {
+                        close(h);
+                    }
+                    else
+                    {
+                        timeout = Math.min(timeout, waitTime);
+                    }
+                }
+
+                for (SelectionKey key : selector.keys())
+                {
+                    if (key.isValid())
+                    {
+                        final Handler h = (Handler) key.attachment();
+                        try
+                        {
+                            key.interestOps(h.getInterestOps((SocketChannel) key.channel()));
+                        }
+                        catch (Exception e)
+                        {
+                            Logging.info(this, "handler interest error: " + e.getLocalizedMessage());
+                            close(h);
+                        }
+                    }
+                }
+
+                if (timeout > 0)
+                {
+                    selector.select(timeout);
+                }
+                else
+                {
+                    selector.selectNow();
+                }
+                loopRate.tick();
+
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext())
+                {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    final Handler h = (Handler) key.attachment();
+                    try
+                    {
+                        if (key.isValid())
+                        {
+                            h.onReady(key);
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        Logging.info(this, "handler error: " + e.getLocalizedMessage());
+                        close(h);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                Logging.info(this, "interrupted: " + e.getLocalizedMessage());
+                break;
+            }
+        }
+
+        processRegistrations();
+        for (Handler h : new ArrayList<>(handlers))
+        {
+            close(h);
+        }
+        try
+        {
+            if (selector != null)
+            {
+                selector.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // nothing to do
+        }
+        super.stop();
+        Logging.info(this, "stopped: " + this);
+    }
+
+    private void processRegistrations()
+    {
+        Registration r;
+        while ((r = pending.poll()) != null)
+        {
+            handlers.add(r.handler);
+            for (SocketChannel socket : r.sockets)
+            {
+                if (socket == null)
+                {
+                    continue;
+                }
+                try
+                {
+                    socket.register(selector, SelectionKey.OP_READ, r.handler);
+                }
+                catch (Exception e)
+                {
+                    Logging.info(this, "cannot register socket: " + e.getLocalizedMessage());
+                }
+            }
+            Metrics.set("Reactor handlers", handlers.size());
+        }
+    }
+
+    private void close(@NonNull final Handler h)
+    {
+        if (handlers.remove(h))
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                if (key.attachment() == h)
+                {
+                    key.cancel();
+                }
+            }
+            Metrics.set("Reactor handlers", handlers.size());
+            h.onClosed();
+        }
+    }
+}
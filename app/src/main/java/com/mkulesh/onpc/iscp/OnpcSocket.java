@@ -22,10 +22,8 @@ import com.mkulesh.onpc.utils.Logging;
 import com.mkulesh.onpc.utils.Utils;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.Calendar;
 
 import androidx.annotation.NonNull;
 
@@ -39,6 +37,7 @@ public class OnpcSocket implements ConnectionIf
     private int port = ConnectionIf.EMPTY_PORT;
 
     // Socket handling
+    private final MessageReactor reactor;
     private SocketChannel socket = null;
 
     // data handling
@@ -50,6 +49,11 @@ public class OnpcSocket implements ConnectionIf
         void onData(ByteBuffer buffer);
     }
 
+    OnpcSocket(@NonNull final MessageReactor reactor)
+    {
+        this.reactor = reactor;
+    }
+
     @NonNull
     @Override
     public String getHost()
@@ -81,18 +85,7 @@ public class OnpcSocket implements ConnectionIf
         this.port = port;
         try
         {
-            socket = SocketChannel.open();
-            socket.configureBlocking(false);
-            socket.connect(new InetSocketAddress(host, port));
-            final long startTime = Calendar.getInstance().getTimeInMillis();
-            while (!socket.finishConnect())
-            {
-                final long currTime = Calendar.getInstance().getTimeInMillis();
-                if (currTime > startTime + CONNECTION_TIMEOUT)
-                {
-                    throw new Exception("connection timeout");
-                }
-            }
+            socket = reactor.connect(host, port, CONNECTION_TIMEOUT);
             if (socket.socket().getInetAddress() != null
                     && socket.socket().getInetAddress().getHostAddress() != null)
             {
@@ -0,0 +1,179 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Outbound message queue with two priority lanes: user commands (interactive lane)
+ * are always sent first, state queries (background lane) are rate-limited.
+ * Messages are added from any thread and polled from the reactor thread.
+ */
+class OutputQueue
+{
+    // Background lane: a burst of up to 16 queries, then one query each 10 ms
+    private final static int BACKGROUND_BURST = 16;
+    private final static long BACKGROUND_PERIOD = 10;
+
+    enum Lane
+    {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private final LinkedList<EISCPMessage> interactive = new LinkedList<>();
+    private final BlockingQueue<EISCPMessage> background = new ArrayBlockingQueue<>(MessageChannel.QUEUE_SIZE, true);
+    private final TokenBucket backgroundRate = new TokenBucket(BACKGROUND_BURST, BACKGROUND_PERIOD);
+
+    // diagnostics
+    private String interactiveMetric = null, backgroundMetric = null;
+
+    void setName(@NonNull final String name)
+    {
+        interactiveMetric = "Output queue " + name + ", interactive";
+        backgroundMetric = "Output queue " + name + ", background";
+    }
+
+    static Lane getLane(@NonNull final EISCPMessage m)
+    {
+        return m.isQuery() ? Lane.BACKGROUND : Lane.INTERACTIVE;
+    }
+
+    void add(@NonNull final EISCPMessage m)
+    {
+        if (getLane(m) == Lane.INTERACTIVE)
+        {
+            synchronized (interactive)
+            {
+                if (!supersede(m))
+                {
+                    if (interactive.size() >= MessageChannel.QUEUE_SIZE)
+                    {
+                        throw new IllegalStateException("Queue full");
+                    }
+                    interactive.add(m);
+                }
+            }
+        }
+        else
+        {
+            background.add(m);
+        }
+        publishDepth();
+    }
+
+    /**
+     * Replaces a pending command with the same supersede key by the given one.
+     * The new command keeps the position of the replaced one in the queue.
+     */
+    private boolean supersede(@NonNull final EISCPMessage m)
+    {
+        final String key = m.getSupersedeKey();
+        if (key == null)
+        {
+            return false;
+        }
+        final ListIterator<EISCPMessage> it = interactive.listIterator();
+        while (it.hasNext())
+        {
+            if (key.equals(it.next().getSupersedeKey()))
+            {
+                Logging.info(this, "superseded pending command " + key);
+                Metrics.increment("Output queue, superseded commands");
+                it.set(m);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty()
+    {
+        synchronized (interactive)
+        {
+            return interactive.isEmpty() && background.isEmpty();
+        }
+    }
+
+    int getDepth(@NonNull final Lane lane)
+    {
+        if (lane == Lane.INTERACTIVE)
+        {
+            synchronized (interactive)
+            {
+                return interactive.size();
+            }
+        }
+        return background.size();
+    }
+
+    /**
+     * Returns the time in milliseconds until the next message can be polled,
+     * or Long.MAX_VALUE if the queue is empty
+     */
+    long getWaitTime(final long currTime)
+    {
+        synchronized (interactive)
+        {
+            if (!interactive.isEmpty())
+            {
+                return 0;
+            }
+        }
+        return background.isEmpty() ? Long.MAX_VALUE : backgroundRate.getWaitTime(currTime);
+    }
+
+    boolean isReady(final long currTime)
+    {
+        return getWaitTime(currTime) == 0;
+    }
+
+    @Nullable
+    EISCPMessage poll(final long currTime)
+    {
+        EISCPMessage m;
+        synchronized (interactive)
+        {
+            m = interactive.poll();
+        }
+        if (m == null && !background.isEmpty() && backgroundRate.tryTake(currTime))
+        {
+            m = background.poll();
+        }
+        if (m != null)
+        {
+            publishDepth();
+        }
+        return m;
+    }
+
+    private void publishDepth()
+    {
+        if (interactiveMetric != null)
+        {
+            Metrics.set(interactiveMetric, getDepth(Lane.INTERACTIVE));
+            Metrics.set(backgroundMetric, getDepth(Lane.BACKGROUND));
+        }
+    }
+}
@@ -27,6 +27,7 @@ import com.mkulesh.onpc.iscp.messages.AudioMutingMsg;
 import com.mkulesh.onpc.iscp.messages.AutoPowerMsg;
 import com.mkulesh.onpc.iscp.messages.CdPlayerOperationCommandMsg;
 import com.mkulesh.onpc.iscp.messages.CenterLevelCommandMsg;
+import com.mkulesh.onpc.iscp.messages.CoverBuffer;
 import com.mkulesh.onpc.iscp.messages.CustomPopupMsg;
 import com.mkulesh.onpc.iscp.messages.DcpAllZoneStereoMsg;
 import com.mkulesh.onpc.iscp.messages.DcpAudioRestorerMsg;
@@ -81,7 +82,6 @@ import com.mkulesh.onpc.iscp.messages.XmlListItemMsg;
 import com.mkulesh.onpc.utils.Logging;
 import com.mkulesh.onpc.utils.Utils;
 
-import java.io.ByteArrayOutputStream;
 import java.net.URL;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -183,9 +183,22 @@ public class State implements ConnectionIf
     // Track info (default values are set in clearTrackInfo method)
     public Bitmap cover;
     private URL coverUrl = null;
+    private JacketArtMsg coverRequest = null;
     public String album, artist, title, currentTime, maxTime, fileFormat;
     Integer currentTrack = null, maxTrack = null;
-    private ByteArrayOutputStream coverBuffer = null;
+    private final CoverBuffer coverBuffer = new CoverBuffer();
+    private boolean coverBufferActive = false;
+
+    // ISCP receivers may send the cover of a new track before its artist, album and title,
+    // and the cover is cached by these track fields. Therefore, the cache key is only set
+    // if no track info was received for COVER_KEY_DELAY after the cover.
+    private final static long COVER_KEY_DELAY = 300;
+    private String coverKey = null;
+    private String coverKeyLink = "";
+    private long coverKeyTime = 0;
+    private Bitmap coverToCache = null;
+    private boolean coverLoaded = false;
+    private boolean coverFromCache = false;
 
     // Radio
     public DcpTunerModeMsg.TunerMode dcpTunerMode = DcpTunerModeMsg.TunerMode.NONE;
@@ -213,6 +226,10 @@ public class State implements ConnectionIf
     private int currentCursorPosition = 0;
     public String titleBar = "";
     private final List<XmlListItemMsg> mediaItems = new ArrayList<>();
+    // ISCP media list is requested window by window: loaded windows and the sequence
+    // number of the request that delivered the first window of the current list
+    private final ListRangeIndex xmlLoadedItems = new ListRangeIndex();
+    private int xmlListSequence = -1;
     final List<NetworkServiceMsg> serviceItems = new ArrayList<>();
     private final List<String> listInfoItems = new ArrayList<>();
 
@@ -236,6 +253,8 @@ public class State implements ConnectionIf
     public DcpEcoModeMsg.Status dcpEcoMode = DcpEcoModeMsg.Status.NONE;
     public DcpAudioRestorerMsg.Status dcpAudioRestorer = DcpAudioRestorerMsg.Status.NONE;
     public final List<DcpMediaContainerMsg> dcpMediaPath = new ArrayList<>();
+    private final ListRangeIndex dcpLoadedItems = new ListRangeIndex();
+    private int dcpItemsCount = 0;
     public String mediaListCid = "";
     public String mediaListMid = "";
     private final List<XmlListItemMsg> dcpTrackMenuItems = new ArrayList<>();
@@ -509,6 +528,11 @@ public class State implements ConnectionIf
     {
         cover = null;
         coverUrl = null;
+        coverRequest = null;
+        coverKey = null;
+        coverKeyTime = 0;
+        coverToCache = null;
+        coverLoaded = false;
         album = "";
         artist = "";
         title = "";
@@ -648,6 +672,10 @@ public class State implements ConnectionIf
         {
             return isCommonChange(process((JacketArtMsg) msg));
         }
+        if (msg instanceof CoverLoader.Result)
+        {
+            return isCommonChange(process((CoverLoader.Result) msg));
+        }
         if (msg instanceof AlbumNameMsg)
         {
             return isCommonChange(process((AlbumNameMsg) msg));
@@ -1104,27 +1132,72 @@ public class State implements ConnectionIf
                 return false;
             }
             Logging.info(msg, "<< " + msg);
-            cover = msg.loadFromUrl();
+            // The cover is loaded in background at once, see CoverLoader,
+            // and the cover of the previous track is not shown anymore
             coverUrl = msg.getUrl();
+            coverRequest = msg;
+            coverToCache = null;
+            coverLoaded = false;
+            cover = null;
+            if (protoType == ConnectionIf.ProtoType.DCP || coverUrl == null)
+            {
+                coverKey = coverUrl == null ? null : coverUrl.toString();
+                coverKeyTime = 0;
+            }
+            else
+            {
+                // ISCP receivers provide the cover of each track using the same link:
+                // the load is started without a key, and the key is set later
+                waitCoverKey(coverUrl.toString() + "#");
+            }
             return true;
         }
-        else if (msg.getRawData() != null)
+        else if (msg.isRawData())
         {
-            final byte[] in = msg.getRawData();
             if (msg.getPacketFlag() == JacketArtMsg.PacketFlag.START)
             {
                 Logging.info(msg, "<< " + msg);
-                coverBuffer = new ByteArrayOutputStream();
+                coverBuffer.reset();
+                coverBufferActive = true;
+                coverToCache = null;
+                waitCoverKey("");
             }
-            if (coverBuffer != null)
+            if (coverBufferActive && coverKey == null && updateCoverKey(System.currentTimeMillis()))
             {
-                coverBuffer.write(in, 0, in.length);
+                // A cached cover of this track is shown at once, while the remaining packets are skipped
+                final Bitmap cached = CoverCache.getInstance().getBitmap(coverKey);
+                if (cached != null)
+                {
+                    coverBufferActive = false;
+                    cover = cached;
+                    return true;
+                }
+            }
+            if (coverBufferActive)
+            {
+                msg.appendRawData(coverBuffer);
             }
-            if (msg.getPacketFlag() == JacketArtMsg.PacketFlag.END)
+            if (msg.getPacketFlag() == JacketArtMsg.PacketFlag.END && coverBufferActive)
             {
                 Logging.info(msg, "<< " + msg);
+                coverBufferActive = false;
                 cover = msg.loadFromBuffer(coverBuffer);
-                coverBuffer = null;
+                if (cover == null)
+                {
+                    // a broken or undecodable image is neither shown nor cached
+                    coverKeyTime = 0;
+                    coverToCache = null;
+                    return true;
+                }
+                if (updateCoverKey(System.currentTimeMillis()))
+                {
+                    CoverCache.getInstance().putBitmap(coverKey, cover);
+                }
+                else
+                {
+                    // the cover is cached as soon as its key is known, see onCoverKeyTime
+                    coverToCache = cover;
+                }
                 return true;
             }
         }
@@ -1135,10 +1208,121 @@ public class State implements ConnectionIf
         return false;
     }
 
+    private boolean process(CoverLoader.Result msg)
+    {
+        if (coverUrl == null || !coverUrl.toString().equals(msg.url.toString()))
+        {
+            Logging.info(msg, "Cover image for other track ignored");
+            return false;
+        }
+        cover = msg.cover;
+        coverLoaded = true;
+        if (protoType == ConnectionIf.ProtoType.ISCP && cover != null)
+        {
+            // a link cover loaded without a key is cached here
+            if (updateCoverKey(System.currentTimeMillis()))
+            {
+                CoverCache.getInstance().putBitmap(coverKey, cover);
+            }
+            else
+            {
+                coverToCache = cover;
+            }
+        }
+        return true;
+    }
+
+    private void waitCoverKey(@NonNull final String link)
+    {
+        coverKey = null;
+        coverKeyLink = link;
+        coverKeyTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Sets the cover key if the track info is not changed anymore. A cover that waits for
+     * its key is cached; a link cover that is still loading is searched in the cache
+     */
+    private boolean updateCoverKey(final long currTime)
+    {
+        if (coverKey == null && coverKeyTime > 0 && currTime >= coverKeyTime + COVER_KEY_DELAY)
+        {
+            coverKeyTime = 0;
+            coverKey = coverKeyLink + CoverCache.getTrackKey(artist, album, title);
+            if (coverToCache != null)
+            {
+                CoverCache.getInstance().putBitmap(coverKey, coverToCache);
+                coverToCache = null;
+            }
+            else if (!coverKeyLink.isEmpty() && !coverLoaded)
+            {
+                final Bitmap cached = CoverCache.getInstance().getBitmap(coverKey);
+                if (cached != null)
+                {
+                    cover = cached;
+                    coverLoaded = true;
+                    coverFromCache = true;
+                }
+            }
+        }
+        return coverKey != null;
+    }
+
+    /**
+     * Returns the time in milliseconds until the key of the received cover is known,
+     * or Long.MAX_VALUE if no cover waits for its key
+     */
+    long getCoverKeyWait(final long currTime)
+    {
+        return coverKeyTime == 0 ? Long.MAX_VALUE : Math.max(0, coverKeyTime + COVER_KEY_DELAY - currTime);
+    }
+
+    /**
+     * Called if the cover key delay is expired. Returns true if the cover of a link
+     * that is still loading is taken from the cache
+     */
+    boolean onCoverKeyTime(final long currTime)
+    {
+        updateCoverKey(currTime);
+        final boolean retValue = coverFromCache;
+        coverFromCache = false;
+        return retValue;
+    }
+
+    /**
+     * Returns the cover link that shall be loaded in background, if any
+     */
+    @Nullable
+    JacketArtMsg pollCoverRequest()
+    {
+        final JacketArtMsg r = coverRequest;
+        coverRequest = null;
+        return r;
+    }
+
+    /**
+     * Returns the cache key of the cover link, or null if the key is not known yet
+     */
+    @Nullable
+    String getCoverKey()
+    {
+        return coverKey;
+    }
+
+    private void onTrackInfo()
+    {
+        if (coverKeyTime > 0)
+        {
+            // the track info of a new track is still received
+            coverKeyTime = System.currentTimeMillis();
+        }
+    }
+
     private boolean process(AlbumNameMsg msg)
     {
         final boolean changed = !msg.getData().equals(album);
         album = msg.getData();
+        onTrackInfo();
         return changed;
     }
 
@@ -1146,6 +1330,7 @@ public class State implements ConnectionIf
     {
         final boolean changed = !msg.getData().equals(artist);
         artist = msg.getData();
+        onTrackInfo();
         return changed;
     }
 
@@ -1153,6 +1338,7 @@ public class State implements ConnectionIf
     {
         final boolean changed = !msg.getData().equals(title);
         title = msg.getData();
+        onTrackInfo();
         return changed;
     }
 
@@ -1323,6 +1509,8 @@ public class State implements ConnectionIf
         synchronized (mediaItems)
         {
             mediaItems.clear();
+            dcpLoadedItems.clear();
+            xmlLoadedItems.clear();
         }
         synchronized (serviceItems)
         {
@@ -1349,6 +1537,7 @@ public class State implements ConnectionIf
             if (isSimpleInput())
             {
                 mediaItems.clear();
+                xmlLoadedItems.clear();
                 Logging.info(msg, "skipped: input channel " + inputType.toString() + " is not a media list");
                 return true;
             }
@@ -1361,16 +1550,51 @@ public class State implements ConnectionIf
             try
             {
                 Logging.info(msg, "processing XmlListInfoMsg");
-                msg.parseXml(mediaItems, numberOfLayers);
+                final List<XmlListItemMsg> items = new ArrayList<>();
+                final int offset = msg.parseXml(items, numberOfLayers);
+                if (offset < 0)
+                {
+                    // a failed or empty reply shall not drop the items loaded so far
+                    Logging.info(msg, "skipped: no items in the response");
+                    return false;
+                }
+                if (offset == 0)
+                {
+                    // the first window replaces the list
+                    mediaItems.clear();
+                    xmlLoadedItems.clear();
+                    xmlListSequence = msg.getSequenceNumber();
+                }
+                else if (xmlLoadedItems.isEmpty() || !isXmlListSequence(msg.getSequenceNumber()))
+                {
+                    Logging.info(msg, "skipped: items " + offset + "-" + (offset + items.size())
+                            + " belong to a previous list");
+                    return false;
+                }
+                else if (xmlLoadedItems.contains(offset, offset + items.size()))
+                {
+                    Logging.info(msg, "skipped: items " + offset + "-" + (offset + items.size())
+                            + " are already loaded");
+                    return false;
+                }
+                // windows are kept in the order of list indices
+                int pos = mediaItems.size();
+                while (pos > 0 && mediaItems.get(pos - 1).getMessageId() >= offset)
+                {
+                    pos--;
+                }
+                mediaItems.addAll(pos, items);
+                xmlLoadedItems.add(offset, offset + items.size());
                 if (isQueue() && (currentTrack == null || maxTrack == null))
                 {
-                    trackInfoFromList(mediaItems);
+                    trackInfoFromList(items);
                 }
                 return true;
             }
             catch (Exception e)
             {
                 mediaItems.clear();
+                xmlLoadedItems.clear();
                 Logging.info(msg, "Can not parse XML: " + e.getLocalizedMessage());
             }
         }
@@ -1384,13 +1608,40 @@ public class State implements ConnectionIf
             final XmlListItemMsg m = list.get(i);
             if (m.getIcon() == XmlListItemMsg.Icon.PLAY)
             {
-                currentTrack = i + 1;
-                maxTrack = list.size();
+                currentTrack = m.getMessageId() + 1;
+                maxTrack = Math.max(numberOfItems, mediaItems.size());
                 return;
             }
         }
     }
 
+    /**
+     * Checks whether a window with the given sequence number was requested after
+     * the first window of the current list; sequence numbers wrap at 0xFFFF
+     */
+    private boolean isXmlListSequence(final int seq)
+    {
+        final int diff = (seq - xmlListSequence) & 0xFFFF;
+        return diff > 0 && diff < 0x8000;
+    }
+
+    /**
+     * Returns the index of the first item of the current ISCP media list that is not
+     * loaded yet, or -1 if all items are loaded
+     */
+    int getXmlMissingItem()
+    {
+        synchronized (mediaItems)
+        {
+            if (xmlLoadedItems.isEmpty())
+            {
+                return -1;
+            }
+            final int idx = xmlLoadedItems.firstMissing(0);
+            return idx < numberOfItems ? idx : -1;
+        }
+    }
+
     public List<NetworkServiceMsg> cloneServiceItems()
     {
         synchronized (serviceItems)
@@ -1997,6 +2248,7 @@ public class State implements ConnectionIf
             if (msg.getStart() == 0)
             {
                 mediaItems.clear();
+                dcpLoadedItems.clear();
                 // Media path
                 final List<DcpMediaContainerMsg> tmpPath = new ArrayList<>();
                 for (DcpMediaContainerMsg pe : dcpMediaPath)
@@ -2035,6 +2287,14 @@ public class State implements ConnectionIf
             {
                 return false;
             }
+            final int end = msg.getStart() + msg.getItems().size();
+            if (msg.getStart() > 0 && dcpLoadedItems.contains(msg.getStart(), end))
+            {
+                Logging.info(this, "DCP media list: items " + msg.getStart() + "-" + end + " are already loaded");
+                return false;
+            }
+            dcpLoadedItems.add(msg.getStart(), end);
+            dcpItemsCount = msg.getCount();
             mediaItems.addAll(msg.getItems());
             Collections.sort(mediaItems, (lhs, rhs) -> {
                 int val = lhs.getIconType().compareTo(rhs.getIconType());
@@ -2061,6 +2321,23 @@ public class State implements ConnectionIf
         return true;
     }
 
+    /**
+     * Returns the index of the first item of the current DCP media list that is not
+     * loaded yet, or -1 if all items are loaded
+     */
+    int getDcpMissingItem()
+    {
+        synchronized (mediaItems)
+        {
+            if (dcpLoadedItems.isEmpty())
+            {
+                return -1;
+            }
+            final int idx = dcpLoadedItems.firstMissing(0);
+            return idx < dcpItemsCount ? idx : -1;
+        }
+    }
+
     public List<XmlListItemMsg> cloneDcpTrackMenuItems(final DcpMediaContainerMsg dcpItem)
     {
         synchronized (dcpTrackMenuItems)
@@ -2095,6 +2372,7 @@ public class State implements ConnectionIf
         synchronized (mediaItems)
         {
             mediaItems.clear();
+            dcpLoadedItems.clear();
         }
         createServiceItems();
         numberOfItems = serviceItems.size();
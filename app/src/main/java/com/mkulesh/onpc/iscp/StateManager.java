@@ -85,6 +85,7 @@ import com.mkulesh.onpc.iscp.scripts.MessageScript;
 import com.mkulesh.onpc.iscp.scripts.MessageScriptIf;
 import com.mkulesh.onpc.utils.AppTask;
 import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -95,6 +96,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -126,7 +128,16 @@ public class StateManager extends AppTask implements Runnable
     private final AtomicInteger skipNextTimeMsg = new AtomicInteger();
     private final AtomicBoolean requestRIonPreset = new AtomicBoolean();
     private final HashSet<State.ChangeType> eventChanges = new HashSet<>();
+
+    // Maximal number of bytes an ISCP channel writes into its socket in one reactor iteration
+    private final static int ISCP_WRITE_BUDGET = 4 * 1024;
     private int xmlReqId = 0;
+
+    // Target of summed relative volume steps
+    private final static long VOLUME_TARGET_TIMEOUT = 1000;
+    private final Object volumeLock = new Object();
+    private int volumeTarget = MasterVolumeMsg.NO_LEVEL;
+    private long volumeTargetTime = 0;
     private ISCPMessage circlePlayQueueMsg = null;
 
     private final static String[] trackStateQueries = new String[]{
@@ -147,7 +158,15 @@ public class StateManager extends AppTask implements Runnable
     private final AtomicBoolean keepPlaybackMode = new AtomicBoolean();
     private final boolean useBmpImages;
 
-    private final BlockingQueue<ISCPMessage> inputQueue = new ArrayBlockingQueue<>(MessageChannel.QUEUE_SIZE, true);
+    // A single NIO thread shared by the primary and all multiroom channels
+    private final MessageReactor reactor = new MessageReactor();
+
+    // The channels stop reading while the input queue is full: wake them up when it is drained
+    private final InputQueue inputQueue = new InputQueue(MessageChannel.QUEUE_SIZE, reactor::wakeup);
+
+    // Cover images are downloaded and decoded outside of the state thread
+    private final CoverLoader coverLoader = new CoverLoader(inputQueue);
+    private final AtomicLong coverRequestTime = new AtomicLong(0);
 
     public final static OperationCommandMsg LIST_MSG =
             new OperationCommandMsg(OperationCommandMsg.Command.LIST);
@@ -155,6 +174,22 @@ public class StateManager extends AppTask implements Runnable
     // MessageScript processor
     private final ArrayList<MessageScriptIf> messageScripts;
 
+    // DCP media list is requested window by window while it is scrolled
+    private final static int DCP_LIST_PREFETCH = DcpMediaContainerMsg.BROWSE_WINDOW;
+    private final Object dcpListLock = new Object();
+    private DcpMediaContainerMsg dcpListRequest = null;
+    private int dcpListVisibleEnd = 0;
+    private int dcpListPending = -1;
+    private boolean dcpListLoadAll = false;
+
+    // ISCP media list is requested window by window as well
+    private final static int XML_LIST_PREFETCH = XmlListInfoMsg.LIST_WINDOW;
+    private final Object xmlListLock = new Object();
+    private int xmlListLayers = -1;
+    private int xmlListVisibleEnd = 0;
+    private int xmlListPending = -1;
+    private boolean xmlListLoadAll = false;
+
     public StateManager(final Activity activity,
                         final DeviceList deviceList,
                         final ConnectionState connectionState,
@@ -174,8 +209,8 @@ public class StateManager extends AppTask implements Runnable
         this.stateListener = stateListener;
 
         messageChannel = port == ConnectionIf.DCP_PORT ?
-                new MessageChannelDcp(zone, connectionState, inputQueue) :
-                new MessageChannelIscp(connectionState, inputQueue);
+                new MessageChannelDcp(zone, connectionState, reactor, inputQueue) :
+                new MessageChannelIscp(connectionState, reactor, inputQueue, ISCP_WRITE_BUDGET);
         if (!messageChannel.connectToServer(host, port))
         {
             throw new Exception("Cannot connect to server");
@@ -204,7 +239,9 @@ public class StateManager extends AppTask implements Runnable
         }
 
         this.messageScripts = messageScripts;
+        CoverCache.getInstance().setCacheDir(activity.getCacheDir());
 
+        reactor.start();
         messageChannel.start();
         StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
         StrictMode.setThreadPolicy(policy);
@@ -249,12 +286,13 @@ public class StateManager extends AppTask implements Runnable
         this.connectionState = connectionState;
         this.stateListener = stateListener;
 
-        messageChannel = new MessageChannelIscp(connectionState, inputQueue);
+        messageChannel = new MessageChannelIscp(connectionState, reactor, inputQueue, ISCP_WRITE_BUDGET);
         state = new MockupState(zone);
         useBmpImages = false;
         setPlaybackMode(false);
         messageScripts = new ArrayList<>();
 
+        reactor.start();
         messageChannel.start();
         StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
         StrictMode.setThreadPolicy(policy);
@@ -269,6 +307,7 @@ public class StateManager extends AppTask implements Runnable
     public void stop()
     {
         super.stop();
+        reactor.cancelConnects();
         messageChannel.stop();
         for (MessageChannel m : multiroomChannels.values())
         {
@@ -312,7 +351,20 @@ public class StateManager extends AppTask implements Runnable
                     break;
                 }
 
-                final ISCPMessage msg = inputQueue.take();
+                final long coverKeyWait = state.getCoverKeyWait(System.currentTimeMillis());
+                final ISCPMessage msg = coverKeyWait > 0 ? inputQueue.take(coverKeyWait) : null;
+                if (msg == null)
+                {
+                    // the track info of a received cover is complete
+                    if (state.onCoverKeyTime(System.currentTimeMillis()))
+                    {
+                        // the cover is known from the cache: its download is not needed anymore
+                        coverLoader.cancel();
+                        eventChanges.add(State.ChangeType.COMMON);
+                        publishProgress();
+                    }
+                    continue;
+                }
 
                 if (msg instanceof ZonedMessage)
                 {
@@ -324,6 +376,16 @@ public class StateManager extends AppTask implements Runnable
                     }
                 }
 
+                if (msg instanceof CoverLoader.Result)
+                {
+                    final CoverLoader.Result r = (CoverLoader.Result) msg;
+                    if (!coverLoader.isCurrent(r))
+                    {
+                        continue;
+                    }
+                    coverRequestTime.set(r.requestTime);
+                }
+
                 boolean changed = false;
 
                 try
@@ -347,6 +409,8 @@ public class StateManager extends AppTask implements Runnable
                     }
                 }
 
+                loadCover();
+
                 if (msg instanceof BroadcastResponseMsg && deviceList != null)
                 {
                     handleMultiroom();
@@ -390,6 +454,8 @@ public class StateManager extends AppTask implements Runnable
             }
         }
 
+        coverLoader.stop();
+        reactor.stop();
         Logging.info(this, "stopped: " + this);
         stateListener.onManagerStopped();
         onPostExecute();
@@ -488,12 +554,27 @@ public class StateManager extends AppTask implements Runnable
             if (state.isUsb() && state.isTopLayer() && !state.listInfoConsistent())
             {
                 Logging.info(this, "requesting XML list state for USB...");
-                messageChannel.sendMessage(
-                        new EISCPMessage(XmlListInfoMsg.CODE, XmlListInfoMsg.getListedData(
-                                xmlReqId++, state.numberOfLayers, 0, state.numberOfItems)));
+                requestXmlListWindow(state.numberOfLayers, state.numberOfItems);
             }
         }
 
+        // the next window is requested independently of whether the list was changed
+        if (msg instanceof XmlListInfoMsg)
+        {
+            synchronized (xmlListLock)
+            {
+                if (xmlListPending > 0 && state.getXmlMissingItem() == xmlListPending)
+                {
+                    // the window was not delivered: no further items can be loaded
+                    xmlListLayers = -1;
+                }
+                xmlListPending = -1;
+                // a message script searches items by name and needs the whole list
+                xmlListLoadAll = isMessageScriptRunning();
+            }
+            requestXmlListItems(0);
+        }
+
         // Issue LIST command upon PlayStatusMsg if PlaybackMode is active
         if (msg instanceof ListTitleInfoMsg)
         {
@@ -663,6 +744,7 @@ public class StateManager extends AppTask implements Runnable
         if (msg instanceof ReceiverInformationMsg)
         {
             final ReceiverInformationMsg ri = (ReceiverInformationMsg) msg;
+            messageChannel.setModel(state.getModel());
             if (ri.getPresetList().isEmpty())
             {
                 sendMessage(new DcpReceiverInformationMsg(DcpReceiverInformationMsg.QueryType.FULL));
@@ -801,14 +883,26 @@ public class StateManager extends AppTask implements Runnable
         if (msg instanceof DcpMediaContainerMsg)
         {
             final DcpMediaContainerMsg mc = (DcpMediaContainerMsg) msg;
-            final int currItems = mc.getStart() + mc.getItems().size();
-            if (currItems < mc.getCount() && mc.getCid().equals(state.mediaListCid))
+            if (mc.getCid().equals(state.mediaListCid))
             {
-                Logging.info(this, "Requesting DCP media list: currItems=" + currItems + ", count=" + mc.getCount());
-                final DcpMediaContainerMsg newMc = new DcpMediaContainerMsg(mc);
-                newMc.setAid("");
-                newMc.setStart(currItems);
-                sendMessage(newMc);
+                synchronized (dcpListLock)
+                {
+                    if (mc.getStart() == 0)
+                    {
+                        dcpListVisibleEnd = 0;
+                    }
+                    dcpListPending = -1;
+                    // an empty window means that no further items can be loaded
+                    dcpListRequest = (mc.getStart() > 0 && mc.getItems().isEmpty()) ?
+                            null : new DcpMediaContainerMsg(mc);
+                    if (dcpListRequest != null)
+                    {
+                        dcpListRequest.setAid("");
+                    }
+                    // a message script searches items by name and needs the whole list
+                    dcpListLoadAll = isMessageScriptRunning();
+                }
+                requestDcpListItems(0);
             }
             if (mc.getStart() == 0 && !state.mediaListSid.isEmpty() && state.mediaListSid.equals(mc.getSid()))
             {
@@ -838,12 +932,27 @@ public class StateManager extends AppTask implements Runnable
         return true;
     }
 
+    private void loadCover()
+    {
+        final JacketArtMsg coverRequest = state.pollCoverRequest();
+        if (coverRequest != null)
+        {
+            // The key of an ISCP cover link is not known yet: such a cover is cached by the state
+            coverLoader.load(coverRequest, state.getCoverKey());
+        }
+    }
+
     protected void publishProgress()
     {
         activity.runOnUiThread(() ->
         {
             stateListener.onStateChanged(state, eventChanges);
             eventChanges.clear();
+            final long requestTime = coverRequestTime.getAndSet(0);
+            if (requestTime > 0)
+            {
+                Metrics.set("Track change to cover shown, ms", System.currentTimeMillis() - requestTime);
+            }
         });
     }
 
@@ -851,8 +960,7 @@ public class StateManager extends AppTask implements Runnable
     {
         Logging.info(this, "requesting list state...");
         requestXmlList.set(true);
-        messageChannel.sendMessage(
-                new EISCPMessage(ListTitleInfoMsg.CODE, EISCPMessage.QUERY));
+        messageChannel.sendMessage(EISCPMessage.getQuery(ListTitleInfoMsg.CODE));
     }
 
     private void requestXmlListState(final ListTitleInfoMsg liMsg)
@@ -872,13 +980,54 @@ public class StateManager extends AppTask implements Runnable
                 || liMsg.getUiType() == ListTitleInfoMsg.UIType.MENU)
         {
             Logging.info(this, "requesting XML list state");
-            messageChannel.sendMessage(
-                    new EISCPMessage(XmlListInfoMsg.CODE, XmlListInfoMsg.getListedData(
-                            xmlReqId++, liMsg.getNumberOfLayers(), 0, liMsg.getNumberOfItems())));
+            requestXmlListWindow(liMsg.getNumberOfLayers(), liMsg.getNumberOfItems());
+        }
+    }
+
+    /**
+     * Requests the first window of the list: the rest of the list is requested
+     * on demand by requestXmlListItems
+     */
+    private void requestXmlListWindow(final int layers, final int numberOfItems)
+    {
+        synchronized (xmlListLock)
+        {
+            xmlListLayers = layers;
+            xmlListVisibleEnd = 0;
+            xmlListPending = 0;
+        }
+        // if the number of items is not known, the request is kept unchanged
+        sendXmlListRequest(layers, 0, numberOfItems > 0 ?
+                Math.min(numberOfItems, XmlListInfoMsg.LIST_WINDOW) : numberOfItems);
+    }
+
+    private void sendXmlListRequest(final int layers, final int start, final int numberOfItems)
+    {
+        final String data;
+        synchronized (xmlListLock)
+        {
+            data = XmlListInfoMsg.getListedData(xmlReqId, layers, start, numberOfItems);
+            xmlReqId = (xmlReqId + 1) & 0xFFFF;
+        }
+        messageChannel.sendMessage(new EISCPMessage(XmlListInfoMsg.CODE, data));
+    }
+
+    public void sendMessage(ISCPMessage msg)
+    {
+        if (msg instanceof MasterVolumeMsg)
+        {
+            // Volume steps are sent from the UI and the state threads: a step is converted and
+            // queued under the lock, so that no step is lost and the last target is sent last
+            synchronized (volumeLock)
+            {
+                sendToChannel(toAbsoluteVolume((MasterVolumeMsg) msg));
+            }
+            return;
         }
+        sendToChannel(msg);
     }
 
-    public void sendMessage(final ISCPMessage msg)
+    private void sendToChannel(@NonNull final ISCPMessage msg)
     {
         Logging.info(this, "sending message: " + msg.toString());
         if (msg.isMultiline())
@@ -898,6 +1047,40 @@ public class StateManager extends AppTask implements Runnable
         }
     }
 
+    /**
+     * Converts a relative volume step into an absolute volume level. Steps that follow each other
+     * within VOLUME_TARGET_TIMEOUT are summed up, so that a not yet sent volume command in the output
+     * queue is superseded by the new target instead of replaying all steps. Shall be called
+     * under the volumeLock.
+     */
+    @NonNull
+    private ISCPMessage toAbsoluteVolume(@NonNull final MasterVolumeMsg msg)
+    {
+        final MasterVolumeMsg.Command cmd = msg.getCommand();
+        if (cmd != MasterVolumeMsg.Command.UP && cmd != MasterVolumeMsg.Command.DOWN)
+        {
+            return msg;
+        }
+        // A relative step is equal to one unit of the volume level if the volume step of the zone is known
+        final ReceiverInformationMsg.Zone zone = state.getActiveZoneInfo();
+        if (zone == null || zone.getVolumeStep() > 1
+                || msg.zoneIndex != state.getActiveZone()
+                || state.volumeLevel == MasterVolumeMsg.NO_LEVEL)
+        {
+            return msg;
+        }
+        final long currTime = System.currentTimeMillis();
+        final int base = (volumeTarget != MasterVolumeMsg.NO_LEVEL
+                && currTime - volumeTargetTime < VOLUME_TARGET_TIMEOUT) ? volumeTarget : state.volumeLevel;
+        final int scale = zone.getVolumeStep() == 0 ? 2 : 1;
+        final int maxVolume = zone.getVolMax() > 0 ? scale * zone.getVolMax() :
+                Math.max(state.volumeLevel, scale * MasterVolumeMsg.MAX_VOLUME_1_STEP);
+        volumeTarget = Math.max(0, Math.min(maxVolume,
+                cmd == MasterVolumeMsg.Command.UP ? base + 1 : base - 1));
+        volumeTargetTime = currTime;
+        return new MasterVolumeMsg(msg.zoneIndex, volumeTarget);
+    }
+
     public void sendMessageToGroup(final ISCPMessage msg)
     {
         Logging.info(this, "sending message to group: " + msg.toString());
@@ -942,8 +1125,7 @@ public class StateManager extends AppTask implements Runnable
             {
                 continue;
             }
-            messageChannel.sendMessage(
-                    new EISCPMessage(code, EISCPMessage.QUERY));
+            messageChannel.sendMessage(EISCPMessage.getQuery(code));
         }
     }
 
@@ -968,6 +1150,113 @@ public class StateManager extends AppTask implements Runnable
         }
     }
 
+    /**
+     * Requests the next window of the current media list if the list is scrolled near its
+     * loaded end
+     */
+    public void requestListItems(final int visibleEnd)
+    {
+        if (state.protoType == ConnectionIf.ProtoType.DCP)
+        {
+            requestDcpListItems(visibleEnd);
+        }
+        else
+        {
+            requestXmlListItems(visibleEnd);
+        }
+    }
+
+    /**
+     * Requests the next window of the current DCP media list if the list is scrolled near its
+     * loaded end. Called from the UI thread with the end of the visible items, and from the
+     * state thread if a window is received.
+     */
+    private void requestDcpListItems(final int visibleEnd)
+    {
+        final DcpMediaContainerMsg newMc;
+        synchronized (dcpListLock)
+        {
+            dcpListVisibleEnd = Math.max(dcpListVisibleEnd, visibleEnd);
+            if (dcpListRequest == null || dcpListPending >= 0
+                    || !dcpListRequest.getCid().equals(state.mediaListCid))
+            {
+                return;
+            }
+            final int missing = state.getDcpMissingItem();
+            if (missing < 0)
+            {
+                return;
+            }
+            int limit = dcpListVisibleEnd + DCP_LIST_PREFETCH;
+            final Integer currentTrack = state.currentTrack;
+            if (state.isQueue() && currentTrack != null)
+            {
+                // the playing track shall be loaded in order to be shown
+                limit = Math.max(limit, currentTrack + DCP_LIST_PREFETCH);
+            }
+            if (missing >= limit && !dcpListLoadAll)
+            {
+                return;
+            }
+            dcpListPending = missing;
+            newMc = new DcpMediaContainerMsg(dcpListRequest);
+            newMc.setStart(missing);
+        }
+        Logging.info(this, "Requesting DCP media list from " + newMc.getStart()
+                + ", visible until " + dcpListVisibleEnd);
+        sendMessage(newMc);
+    }
+
+    /**
+     * Requests the next window of the current ISCP media list. The receiver is asked
+     * for one window at a time; the loaded windows are kept in the state.
+     */
+    private void requestXmlListItems(final int visibleEnd)
+    {
+        final int layers, missing;
+        synchronized (xmlListLock)
+        {
+            xmlListVisibleEnd = Math.max(xmlListVisibleEnd, visibleEnd);
+            if (xmlListLayers < 0 || xmlListPending >= 0 || xmlListLayers != state.numberOfLayers)
+            {
+                return;
+            }
+            missing = state.getXmlMissingItem();
+            if (missing < 0)
+            {
+                return;
+            }
+            int limit = xmlListVisibleEnd + XML_LIST_PREFETCH;
+            final Integer currentTrack = state.currentTrack;
+            if (state.isQueue() && currentTrack != null)
+            {
+                // the playing track shall be loaded in order to be shown
+                limit = Math.max(limit, currentTrack + XML_LIST_PREFETCH);
+            }
+            if (missing >= limit && !xmlListLoadAll)
+            {
+                return;
+            }
+            xmlListPending = missing;
+            layers = xmlListLayers;
+        }
+        Logging.info(this, "Requesting XML media list from " + missing
+                + ", visible until " + xmlListVisibleEnd);
+        sendXmlListRequest(layers, missing, XmlListInfoMsg.LIST_WINDOW);
+    }
+
+    private boolean isMessageScriptRunning()
+    {
+        for (MessageScriptIf script : messageScripts)
+        {
+            if (script instanceof MessageScript && ((MessageScript) script).isRunning())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void sendDcpMediaCmd(DcpMediaContainerMsg mc, int aid)
     {
         final DcpMediaContainerMsg mc1 = new DcpMediaContainerMsg(mc);
@@ -1007,12 +1296,12 @@ public class StateManager extends AppTask implements Runnable
             }
             Logging.info(this, "connecting to multiroom device: " + msg.getHostAndPort());
             final MessageChannel m = msg.getPort() == ConnectionIf.DCP_PORT ?
-                    new MessageChannelDcp(ReceiverInformationMsg.DEFAULT_ACTIVE_ZONE, connectionState, inputQueue) :
-                    new MessageChannelIscp(connectionState, inputQueue);
+                    new MessageChannelDcp(ReceiverInformationMsg.DEFAULT_ACTIVE_ZONE, connectionState, reactor, inputQueue) :
+                    new MessageChannelIscp(connectionState, reactor, inputQueue, ISCP_WRITE_BUDGET);
             for (String code : multiroomQueries)
             {
                 m.addAllowedMessage(code);
-                m.sendMessage(new EISCPMessage(code, EISCPMessage.QUERY));
+                m.sendMessage(EISCPMessage.getQuery(code));
             }
 
             if (m.connectToServer(msg.getHost(), msg.getPort()))
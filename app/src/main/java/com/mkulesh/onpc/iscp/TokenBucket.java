@@ -0,0 +1,69 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp;
+
+/**
+ * Rate limiter: up to "capacity" events at once, then one event per "period" milliseconds
+ */
+class TokenBucket
+{
+    private final int capacity;
+    private final long period;
+    private int tokens;
+    private long lastTime;
+
+    TokenBucket(final int capacity, final long period)
+    {
+        this.capacity = capacity;
+        this.period = period;
+        this.tokens = capacity;
+        this.lastTime = System.currentTimeMillis();
+    }
+
+    private void refill(final long currTime)
+    {
+        if (tokens >= capacity)
+        {
+            lastTime = currTime;
+            return;
+        }
+        final long n = (currTime - lastTime) / period;
+        if (n > 0)
+        {
+            tokens = (int) Math.min(capacity, tokens + n);
+            lastTime += n * period;
+        }
+    }
+
+    boolean tryTake(final long currTime)
+    {
+        refill(currTime);
+        if (tokens > 0)
+        {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time in milliseconds until the next token is available
+     */
+    long getWaitTime(final long currTime)
+    {
+        refill(currTime);
+        return tokens > 0 ? 0 : Math.max(0, lastTime + period - currTime);
+    }
+}
@@ -14,10 +14,13 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.DocumentContext;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
+import java.util.ArrayList;
+import java.util.Collections;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -50,12 +53,17 @@ public class ArtistNameMsg extends ISCPMessage
      */
     private final static String HEOS_COMMAND = "player/get_now_playing_media";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
-    public static ArtistNameMsg processHeosMessage(@NonNull final String command, @NonNull final String heosMsg)
+    public static ArtistNameMsg processHeosMessage(@NonNull final String command, @NonNull final DocumentContext heosMsg)
     {
         if (HEOS_COMMAND.equals(command))
         {
-            final String name = JsonPath.read(heosMsg, "$.payload.artist");
+            final String name = heosMsg.read("$.payload.artist");
             return new ArtistNameMsg(name);
         }
         return null;
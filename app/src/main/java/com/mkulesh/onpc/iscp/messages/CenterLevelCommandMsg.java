@@ -73,7 +73,7 @@ public class CenterLevelCommandMsg extends ISCPMessage
     @Override
     public EISCPMessage getCmdMsg()
     {
-        return new EISCPMessage(CODE, Utils.intLevelToString(level, cmdLength));
+        return new EISCPMessage(CODE, Utils.intLevelToString(level, cmdLength)).setSupersedeKey(CODE);
     }
 
     @Override
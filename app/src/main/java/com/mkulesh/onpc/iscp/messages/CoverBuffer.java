@@ -0,0 +1,113 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp.messages;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Reusable buffer that collects the binary cover image from the hex-encoded NJA packets.
+ * The hex data is decoded using a nibble table directly into the buffer, and the buffer
+ * memory is kept for the next track. A packet that contains an invalid hex character
+ * makes the whole buffer invalid.
+ */
+public class CoverBuffer
+{
+    private final static int INITIAL_SIZE = 64 * 1024;
+    private final static byte[] NIBBLES = new byte[128];
+
+    static
+    {
+        Arrays.fill(NIBBLES, (byte) -1);
+        for (int i = 0; i < 10; i++)
+        {
+            NIBBLES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++)
+        {
+            NIBBLES['a' + i] = (byte) (10 + i);
+            NIBBLES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private byte[] bytes = null;
+    private int size = 0;
+    private boolean valid = true;
+
+    public void reset()
+    {
+        size = 0;
+        valid = true;
+    }
+
+    /**
+     * Decodes hex characters starting at the given index and appends them to the buffer.
+     * An incomplete trailing character is ignored. The decoding is stopped at the first
+     * invalid character, and the buffer is marked as invalid.
+     */
+    public void appendHex(@NonNull final CharSequence hex, final int from)
+    {
+        if (!valid)
+        {
+            return;
+        }
+        final int count = Math.max(0, (hex.length() - from) / 2);
+        ensureCapacity(size + count);
+        for (int i = 0, j = from; i < count; i++, j += 2)
+        {
+            final int hi = nibble(hex.charAt(j));
+            final int lo = nibble(hex.charAt(j + 1));
+            if (hi < 0 || lo < 0)
+            {
+                valid = false;
+                return;
+            }
+            bytes[size++] = (byte) ((hi << 4) | lo);
+        }
+    }
+
+    private static int nibble(final char c)
+    {
+        return c < NIBBLES.length ? NIBBLES[c] : -1;
+    }
+
+    private void ensureCapacity(final int capacity)
+    {
+        if (bytes == null)
+        {
+            bytes = new byte[Math.max(INITIAL_SIZE, capacity)];
+        }
+        else if (capacity > bytes.length)
+        {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, capacity));
+        }
+    }
+
+    public byte[] getBytes()
+    {
+        return bytes;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public boolean isValid()
+    {
+        return valid;
+    }
+}
@@ -17,6 +17,8 @@ package com.mkulesh.onpc.iscp.messages;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
 
 import androidx.annotation.NonNull;
@@ -92,6 +94,11 @@ public class CustomPopupMsg extends ISCPMessage
      */
     private final static String HEOS_COMMAND = "event/player_playback_error";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
     public static CustomPopupMsg processHeosMessage(@NonNull final String command, @NonNull final Map<String, String> tokens)
     {
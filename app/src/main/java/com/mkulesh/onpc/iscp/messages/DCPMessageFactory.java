@@ -14,13 +14,16 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 import com.mkulesh.onpc.iscp.MessageChannelDcp;
 import com.mkulesh.onpc.utils.Logging;
+import com.mkulesh.onpc.utils.Metrics;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -30,84 +33,156 @@ import androidx.annotation.Nullable;
 
 public class DCPMessageFactory
 {
+    private interface DcpHandler
+    {
+        ISCPMessage process(@NonNull String dcpMsg);
+    }
+
+    private interface HeosHandler
+    {
+        ISCPMessage process(@NonNull String cmd, @NonNull DocumentContext heosMsg,
+                            @NonNull Map<String, String> tokens) throws Exception;
+    }
+
     private int zone = ReceiverInformationMsg.DEFAULT_ACTIVE_ZONE;
     private final ArrayList<ISCPMessage> messages = new ArrayList<>();
     private final Set<String> acceptedCodes = new HashSet<>();
+    private final ArrayList<DcpHandler> dcpHandlers = new ArrayList<>();
+    private final DcpCodeTrie dcpCodes = new DcpCodeTrie();
+    private final Map<String, ArrayList<HeosHandler>> heosHandlers = new HashMap<>();
 
     public void prepare(int zone)
     {
         this.zone = zone;
 
-        acceptedCodes.addAll(DcpReceiverInformationMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(FriendlyNameMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(PowerStatusMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(InputSelectorMsg.getAcceptedDcpCodes());
+        acceptedCodes.clear();
+        dcpHandlers.clear();
+        dcpCodes.clear();
+        addDcpHandler(DcpReceiverInformationMsg.getAcceptedDcpCodes(), DcpReceiverInformationMsg::processDcpMessage);
+        addDcpHandler(FriendlyNameMsg.getAcceptedDcpCodes(), FriendlyNameMsg::processDcpMessage);
+        addDcpHandler(PowerStatusMsg.getAcceptedDcpCodes(), PowerStatusMsg::processDcpMessage);
+        addDcpHandler(InputSelectorMsg.getAcceptedDcpCodes(), InputSelectorMsg::processDcpMessage);
         acceptedCodes.addAll(DcpPlaylistCmdMsg.getAcceptedDcpCodes());
 
         // Tone control
-        acceptedCodes.addAll(MasterVolumeMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(ToneCommandMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(AudioMutingMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(ListeningModeMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(DcpAllZoneStereoMsg.getAcceptedDcpCodes());
+        addDcpHandler(MasterVolumeMsg.getAcceptedDcpCodes(), MasterVolumeMsg::processDcpMessage);
+        addDcpHandler(ToneCommandMsg.getAcceptedDcpCodes(), ToneCommandMsg::processDcpMessage);
+        addDcpHandler(AudioMutingMsg.getAcceptedDcpCodes(), AudioMutingMsg::processDcpMessage);
+        addDcpHandler(ListeningModeMsg.getAcceptedDcpCodes(), ListeningModeMsg::processDcpMessage);
+        addDcpHandler(DcpAllZoneStereoMsg.getAcceptedDcpCodes(), DcpAllZoneStereoMsg::processDcpMessage);
 
         // Tuner
-        acceptedCodes.addAll(DcpTunerModeMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(TuningCommandMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(RadioStationNameMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(PresetCommandMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(PresetMemoryMsg.getAcceptedDcpCodes());
+        addDcpHandler(DcpTunerModeMsg.getAcceptedDcpCodes(), DcpTunerModeMsg::processDcpMessage);
+        addDcpHandler(TuningCommandMsg.getAcceptedDcpCodes(),
+                dcpMsg -> TuningCommandMsg.processDcpMessage(dcpMsg, this.zone));
+        addDcpHandler(RadioStationNameMsg.getAcceptedDcpCodes(), RadioStationNameMsg::processDcpMessage);
+        addDcpHandler(PresetCommandMsg.getAcceptedDcpCodes(),
+                dcpMsg -> PresetCommandMsg.processDcpMessage(dcpMsg, this.zone));
+        addDcpHandler(PresetMemoryMsg.getAcceptedDcpCodes(), PresetMemoryMsg::processDcpMessage);
 
         // Settings
-        acceptedCodes.addAll(DimmerLevelMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(SleepSetCommandMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(DcpEcoModeMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(DcpAudioRestorerMsg.getAcceptedDcpCodes());
-        acceptedCodes.addAll(HdmiCecMsg.getAcceptedDcpCodes());
+        addDcpHandler(DimmerLevelMsg.getAcceptedDcpCodes(), DimmerLevelMsg::processDcpMessage);
+        addDcpHandler(SleepSetCommandMsg.getAcceptedDcpCodes(), SleepSetCommandMsg::processDcpMessage);
+        addDcpHandler(DcpEcoModeMsg.getAcceptedDcpCodes(), DcpEcoModeMsg::processDcpMessage);
+        addDcpHandler(DcpAudioRestorerMsg.getAcceptedDcpCodes(), DcpAudioRestorerMsg::processDcpMessage);
+        addDcpHandler(HdmiCecMsg.getAcceptedDcpCodes(), HdmiCecMsg::processDcpMessage);
 
         Logging.info(this, "Accepted DCP codes: " + acceptedCodes);
+
+        heosHandlers.clear();
+        addHeosHandler(DcpReceiverInformationMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> DcpReceiverInformationMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(FirmwareUpdateMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> FirmwareUpdateMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(FriendlyNameMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> FriendlyNameMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(DcpPlaylistCmdMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> DcpPlaylistCmdMsg.processHeosMessage(cmd));
+
+        // Playback
+        addHeosHandler(ArtistNameMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> ArtistNameMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(AlbumNameMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> AlbumNameMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(TitleNameMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> TitleNameMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(JacketArtMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> JacketArtMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(TimeInfoMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> TimeInfoMsg.processHeosMessage(cmd, tokens));
+        addHeosHandler(PlayStatusMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> PlayStatusMsg.processHeosMessage(cmd, tokens));
+        addHeosHandler(DcpMediaItemMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> DcpMediaItemMsg.processHeosMessage(cmd, heosMsg));
+        addHeosHandler(TrackInfoMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> TrackInfoMsg.processHeosMessage(cmd, tokens));
+
+        // Media list
+        addHeosHandler(DcpMediaContainerMsg.getAcceptedHeosCommands(),
+                DcpMediaContainerMsg::processHeosMessage);
+        addHeosHandler(DcpMediaEventMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> DcpMediaEventMsg.processHeosMessage(cmd));
+        addHeosHandler(CustomPopupMsg.getAcceptedHeosCommands(),
+                (cmd, heosMsg, tokens) -> CustomPopupMsg.processHeosMessage(cmd, tokens));
+        addHeosHandler(DcpSearchCriteriaMsg.getAcceptedHeosCommands(),
+                DcpSearchCriteriaMsg::processHeosMessage);
     }
 
-    private void convertDcpMsg(@NonNull String dcpMsg)
+    private void addHeosHandler(@NonNull final ArrayList<String> commands, @NonNull final HeosHandler handler)
     {
-        addISCPMsg(DcpReceiverInformationMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(FriendlyNameMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(PowerStatusMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(InputSelectorMsg.processDcpMessage(dcpMsg));
-
-        // Tone control
-        addISCPMsg(MasterVolumeMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(ToneCommandMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(AudioMutingMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(ListeningModeMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(DcpAllZoneStereoMsg.processDcpMessage(dcpMsg));
+        for (String cmd : commands)
+        {
+            ArrayList<HeosHandler> handlers = heosHandlers.get(cmd);
+            if (handlers == null)
+            {
+                handlers = new ArrayList<>();
+                heosHandlers.put(cmd, handlers);
+            }
+            handlers.add(handler);
+        }
+    }
 
-        // Tuner
-        addISCPMsg(DcpTunerModeMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(TuningCommandMsg.processDcpMessage(dcpMsg, zone));
-        addISCPMsg(RadioStationNameMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(PresetCommandMsg.processDcpMessage(dcpMsg, zone));
-        addISCPMsg(PresetMemoryMsg.processDcpMessage(dcpMsg));
+    private void addDcpHandler(@NonNull final ArrayList<String> codes, @NonNull final DcpHandler handler)
+    {
+        final int idx = dcpHandlers.size();
+        dcpHandlers.add(handler);
+        for (String code : codes)
+        {
+            dcpCodes.add(code, idx);
+        }
+        acceptedCodes.addAll(codes);
+    }
 
-        // Settings
-        addISCPMsg(DimmerLevelMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(SleepSetCommandMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(DcpEcoModeMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(DcpAudioRestorerMsg.processDcpMessage(dcpMsg));
-        addISCPMsg(HdmiCecMsg.processDcpMessage(dcpMsg));
+    /**
+     * Only the decoders whose codes are prefixes of the message are called
+     */
+    private void convertDcpMsg(@NonNull String dcpMsg)
+    {
+        long handlers = dcpCodes.match(dcpMsg);
+        while (handlers != 0)
+        {
+            final int i = Long.numberOfTrailingZeros(handlers);
+            handlers &= handlers - 1;
+            addISCPMsg(dcpHandlers.get(i).process(dcpMsg));
+        }
     }
 
-    private void convertHeosMsg(@NonNull String heosMsg, @Nullable Integer pid)
+    /**
+     * Parses the HEOS message once and calls only the handlers registered for its command
+     */
+    @NonNull
+    public ArrayList<ISCPMessage> convertHeosMsg(@NonNull DocumentContext heosMsg, @Nullable Integer pid)
     {
+        messages.clear();
         try
         {
-            final String result = JsonPath.read(heosMsg, "$.heos.result");
+            final String result = heosMsg.read("$.heos.result");
             if (!"success".equals(result))
             {
                 final Map<String, String> tokens =
-                        ISCPMessage.parseHeosMessage(JsonPath.read(heosMsg, "$.heos.message"));
+                        ISCPMessage.parseHeosMessage(heosMsg.read("$.heos.message"));
                 Logging.info(this, "DCP HEOS message ignored due to wrong result: " + tokens);
-                return;
+                return messages;
             }
         }
         catch (Exception ex)
@@ -117,45 +192,34 @@ public class DCPMessageFactory
 
         try
         {
-            final String cmd = JsonPath.read(heosMsg, "$.heos.command");
+            final String cmd = heosMsg.read("$.heos.command");
+            final ArrayList<HeosHandler> handlers = heosHandlers.get(cmd);
+            if (handlers == null)
+            {
+                return messages;
+            }
             final Map<String, String> tokens =
-                    ISCPMessage.parseHeosMessage(JsonPath.read(heosMsg, "$.heos.message"));
+                    ISCPMessage.parseHeosMessage(heosMsg.read("$.heos.message"));
             final String pidStr = tokens.get("pid");
             if (pidStr != null && pid != null && !pid.equals(Integer.valueOf(pidStr)))
             {
                 Logging.info(this, "Received DCP HEOS message for different device. Ignored");
-                return;
+                return messages;
             }
             if (tokens.get("command under process") != null)
             {
-                return;
+                return messages;
+            }
+            for (HeosHandler h : handlers)
+            {
+                addISCPMsg(h.process(cmd, heosMsg, tokens));
             }
-
-            addISCPMsg(DcpReceiverInformationMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(FirmwareUpdateMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(FriendlyNameMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(DcpPlaylistCmdMsg.processHeosMessage(cmd));
-
-            // Playback
-            addISCPMsg(ArtistNameMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(AlbumNameMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(TitleNameMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(JacketArtMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(TimeInfoMsg.processHeosMessage(cmd, tokens));
-            addISCPMsg(PlayStatusMsg.processHeosMessage(cmd, tokens));
-            addISCPMsg(DcpMediaItemMsg.processHeosMessage(cmd, heosMsg));
-            addISCPMsg(TrackInfoMsg.processHeosMessage(cmd, tokens));
-
-            // Media list
-            addISCPMsg(DcpMediaContainerMsg.processHeosMessage(cmd, heosMsg, tokens));
-            addISCPMsg(DcpMediaEventMsg.processHeosMessage(cmd));
-            addISCPMsg(CustomPopupMsg.processHeosMessage(cmd, tokens));
-            addISCPMsg(DcpSearchCriteriaMsg.processHeosMessage(cmd, heosMsg, tokens));
         }
         catch (Exception ex)
         {
-            Logging.info(this, "DCP HEOS error: " + ex.getLocalizedMessage() + ", message=" + heosMsg);
+            Logging.info(this, "DCP HEOS error: " + ex.getLocalizedMessage() + ", message=" + heosMsg.jsonString());
         }
+        return messages;
     }
 
     @NonNull
@@ -165,7 +229,14 @@ public class DCPMessageFactory
 
         if (dcpMsg.startsWith(MessageChannelDcp.DCP_HEOS_RESPONSE))
         {
-            convertHeosMsg(dcpMsg, pid);
+            try
+            {
+                convertHeosMsg(JsonPath.parse(dcpMsg), pid);
+            }
+            catch (Exception ex)
+            {
+                Logging.info(this, "DCP HEOS error: " + ex.getLocalizedMessage() + ", message=" + dcpMsg);
+            }
         }
         else
         {
@@ -181,39 +252,32 @@ public class DCPMessageFactory
         return messages;
     }
 
+    /**
+     * Splits the message at the positions where known codes start, going from the end of
+     * the message. Each candidate segment is decoded once; if it is not a valid message,
+     * it stays a part of the previous segment. Returns the first segment that is not decoded yet.
+     */
     @NonNull
     private String splitJoinedMessages(@NonNull String dcpMsg)
     {
-        int startIndex = dcpMsg.length();
-        while (true)
+        int end = dcpMsg.length();
+        for (int start = end - 1; start > 0; start--)
         {
-            int maxIndex = 0;
-            for (String code : acceptedCodes)
+            if (dcpCodes.match(dcpMsg, start, end) == 0)
             {
-                maxIndex = Math.max(maxIndex, dcpMsg.lastIndexOf(code, startIndex));
+                continue;
             }
-
-            if (maxIndex > 0)
+            Logging.info(this, "DCP warning: detected message in the middle: " + dcpMsg + ", start index=" + start);
+            final String second = dcpMsg.substring(start, end);
+            final int oldSize = messages.size();
+            convertDcpMsg(second);
+            if (oldSize != messages.size())
             {
-                Logging.info(this, "DCP warning: detected message in the middle: " + dcpMsg + ", start index=" + maxIndex);
-                final String first = dcpMsg.substring(0, maxIndex);
-                final String second = dcpMsg.substring(maxIndex);
-                final int oldSize = messages.size();
-                convertDcpMsg(second);
-                if (oldSize != messages.size())
-                {
-                    dcpMsg = first;
-                    Logging.info(this, "DCP warning: split DCP message: " + first + "/" + second);
-                }
-                else
-                {
-                    startIndex = maxIndex - 1;
-                }
-                continue;
+                Logging.info(this, "DCP warning: split DCP message: " + dcpMsg.substring(0, start) + "/" + second);
+                end = start;
             }
-            break;
         }
-        return dcpMsg;
+        return dcpMsg.substring(0, end);
     }
 
     @NonNull
@@ -226,7 +290,8 @@ public class DCPMessageFactory
         }
         try
         {
-            final String toSend = createISCPMessage(raw).buildDcpMsg(raw.isQuery());
+            final ISCPMessage iscpMsg = createISCPMessage(raw);
+            final String toSend = iscpMsg == null ? null : iscpMsg.buildDcpMsg(raw.isQuery());
             if (toSend == null)
             {
                 return retValue;
@@ -263,112 +328,16 @@ public class DCPMessageFactory
         }
     }
 
+    @Nullable
     private ISCPMessage createISCPMessage(EISCPMessage raw) throws Exception
     {
-        switch (raw.getCode().toUpperCase())
+        final MessageRegistry.Constructor c = MessageRegistry.find(raw.getPackedCode(), MessageRegistry.DCP);
+        if (c == null)
         {
-        case FriendlyNameMsg.CODE:
-            return new FriendlyNameMsg(raw);
-        case PowerStatusMsg.CODE:
-        case PowerStatusMsg.ZONE2_CODE:
-        case PowerStatusMsg.ZONE3_CODE:
-        case PowerStatusMsg.ZONE4_CODE:
-            return new PowerStatusMsg(raw);
-        case InputSelectorMsg.CODE:
-        case InputSelectorMsg.ZONE2_CODE:
-        case InputSelectorMsg.ZONE3_CODE:
-        case InputSelectorMsg.ZONE4_CODE:
-            return new InputSelectorMsg(raw);
-        case DcpPlaylistCmdMsg.CODE:
-            return new DcpPlaylistCmdMsg(raw);
-        case TimeInfoMsg.CODE:
-            return new TimeInfoMsg(raw);
-        case TrackInfoMsg.CODE:
-            return new TrackInfoMsg(raw);
-        case JacketArtMsg.CODE:
-            return new JacketArtMsg(raw);
-        case TitleNameMsg.CODE:
-            return new TitleNameMsg(raw);
-        case AlbumNameMsg.CODE:
-            return new AlbumNameMsg(raw);
-        case ArtistNameMsg.CODE:
-            return new ArtistNameMsg(raw);
-        case PlayStatusMsg.CODE:
-        case PlayStatusMsg.CD_CODE:
-            return new PlayStatusMsg(raw);
-        case DimmerLevelMsg.CODE:
-            return new DimmerLevelMsg(raw);
-        case AudioMutingMsg.CODE:
-        case AudioMutingMsg.ZONE2_CODE:
-        case AudioMutingMsg.ZONE3_CODE:
-        case AudioMutingMsg.ZONE4_CODE:
-            return new AudioMutingMsg(raw);
-        case MasterVolumeMsg.CODE:
-        case MasterVolumeMsg.ZONE2_CODE:
-        case MasterVolumeMsg.ZONE3_CODE:
-        case MasterVolumeMsg.ZONE4_CODE:
-            return new MasterVolumeMsg(raw);
-        case ToneCommandMsg.CODE:
-        case ToneCommandMsg.ZONE2_CODE:
-        case ToneCommandMsg.ZONE3_CODE:
-            return new ToneCommandMsg(raw);
-        case PresetCommandMsg.CODE:
-        case PresetCommandMsg.ZONE2_CODE:
-        case PresetCommandMsg.ZONE3_CODE:
-        case PresetCommandMsg.ZONE4_CODE:
-            return new PresetCommandMsg(raw);
-        case RadioStationNameMsg.CODE:
-            return new RadioStationNameMsg(raw);
-        case PresetMemoryMsg.CODE:
-            return new PresetMemoryMsg(raw);
-        case TuningCommandMsg.CODE:
-        case TuningCommandMsg.ZONE2_CODE:
-        case TuningCommandMsg.ZONE3_CODE:
-        case TuningCommandMsg.ZONE4_CODE:
-            return new TuningCommandMsg(raw);
-        case ListeningModeMsg.CODE:
-            return new ListeningModeMsg(raw);
-        case DcpAllZoneStereoMsg.CODE:
-            return new DcpAllZoneStereoMsg(raw);
-        case HdmiCecMsg.CODE:
-            return new HdmiCecMsg(raw);
-        case SleepSetCommandMsg.CODE:
-            return new SleepSetCommandMsg(raw);
-        case PlayQueueRemoveMsg.CODE:
-            return new PlayQueueRemoveMsg(raw);
-        case PlayQueueReorderMsg.CODE:
-            return new PlayQueueReorderMsg(raw);
-        case FirmwareUpdateMsg.CODE:
-            return new FirmwareUpdateMsg(raw);
-        // Denon control protocol
-        case OperationCommandMsg.CODE:
-        case OperationCommandMsg.ZONE2_CODE:
-        case OperationCommandMsg.ZONE3_CODE:
-        case OperationCommandMsg.ZONE4_CODE:
-            return new OperationCommandMsg(raw);
-        case SetupOperationCommandMsg.CODE:
-            return new SetupOperationCommandMsg(raw);
-        case NetworkServiceMsg.CODE:
-            return new NetworkServiceMsg(raw);
-        case DcpSearchCriteriaMsg.CODE:
-            return new DcpSearchCriteriaMsg(raw);
-        case DcpSearchMsg.CODE:
-            return new DcpSearchMsg(raw);
-        case DcpReceiverInformationMsg.CODE:
-            return new DcpReceiverInformationMsg(raw);
-        case DcpTunerModeMsg.CODE:
-            return new DcpTunerModeMsg(raw);
-        case DcpEcoModeMsg.CODE:
-            return new DcpEcoModeMsg(raw);
-        case DcpAudioRestorerMsg.CODE:
-            return new DcpAudioRestorerMsg(raw);
-        case DcpMediaContainerMsg.CODE:
-            return new DcpMediaContainerMsg(raw);
-        case DcpMediaItemMsg.CODE:
-            return new DcpMediaItemMsg(raw);
-        default:
-            throw new Exception("No factory method for message " + raw.getCode());
+            Metrics.increment("Unknown DCP message " + raw.getCode());
+            return null;
         }
+        return c.create(raw);
     }
 
 }
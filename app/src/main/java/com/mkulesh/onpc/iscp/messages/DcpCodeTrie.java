@@ -0,0 +1,114 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp.messages;
+
+import java.util.Arrays;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Prefix tree of DCP codes. Each code is mapped to the index of its decoder; a DCP line
+ * is mapped to the set of decoders whose codes are prefixes of this line by a single walk
+ * along the line. The set is returned as a long bit mask, so that up to 64 decoders are supported.
+ */
+final class DcpCodeTrie
+{
+    final static int MAX_HANDLERS = 64;
+
+    private final static class Node
+    {
+        char[] keys = new char[0];
+        Node[] next = new Node[0];
+        long handlers = 0;
+
+        Node get(final char c)
+        {
+            for (int i = 0; i < keys.length; i++)
+            {
+                if (keys[i] == c)
+                {
+                    return next[i];
+                }
+            }
+            return null;
+        }
+
+        Node put(final char c)
+        {
+            Node n = get(c);
+            if (n == null)
+            {
+                n = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                next = Arrays.copyOf(next, next.length + 1);
+                keys[keys.length - 1] = c;
+                next[next.length - 1] = n;
+            }
+            return n;
+        }
+    }
+
+    private final Node root = new Node();
+
+    void clear()
+    {
+        root.keys = new char[0];
+        root.next = new Node[0];
+        root.handlers = 0;
+    }
+
+    void add(@NonNull final String code, final int handler)
+    {
+        if (handler < 0 || handler >= MAX_HANDLERS)
+        {
+            throw new IllegalArgumentException("DCP handler index out of range: " + handler);
+        }
+        Node n = root;
+        for (int i = 0; i < code.length(); i++)
+        {
+            n = n.put(code.charAt(i));
+        }
+        n.handlers |= 1L << handler;
+    }
+
+    /**
+     * Returns the bit mask of decoders whose codes are prefixes of the given message
+     */
+    long match(@NonNull final String dcpMsg)
+    {
+        return match(dcpMsg, 0, dcpMsg.length());
+    }
+
+    /**
+     * Returns the bit mask of decoders whose codes start at the given position of the message
+     * and end not later than the given end position. Since the codes are short, the search
+     * of all codes in a message is linear in the message length.
+     */
+    long match(@NonNull final String dcpMsg, final int start, final int end)
+    {
+        long handlers = root.handlers;
+        Node n = root;
+        for (int i = start; i < end; i++)
+        {
+            n = n.get(dcpMsg.charAt(i));
+            if (n == null)
+            {
+                break;
+            }
+            handlers |= n.handlers;
+        }
+        return handlers;
+    }
+}
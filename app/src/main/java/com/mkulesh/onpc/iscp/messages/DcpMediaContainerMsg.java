@@ -16,6 +16,7 @@ package com.mkulesh.onpc.iscp.messages;
 
 import android.annotation.SuppressLint;
 
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
@@ -25,6 +26,7 @@ import com.mkulesh.onpc.utils.Utils;
 import net.minidev.json.JSONArray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +59,9 @@ public class DcpMediaContainerMsg extends ISCPMessage
     public final static int SO_ADD_ALL = 203;
     public final static int SO_REPLACE_AND_PLAY_ALL = 204;
 
+    // Media lists are requested window by window
+    public final static int BROWSE_WINDOW = 50;
+
     private final BrowseType browseType;
     private String sid;
     private final String parentSid;
@@ -372,9 +377,15 @@ public class DcpMediaContainerMsg extends ISCPMessage
         }
     }
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Arrays.asList(
+                HEOS_RESP_BROWSE_SERV, HEOS_RESP_BROWSE_CONT, HEOS_RESP_BROWSE_SEARCH, HEOS_RESP_BROWSE_QUEUE));
+    }
+
     @Nullable
     public static DcpMediaContainerMsg processHeosMessage(@NonNull final String command,
-                                                          @NonNull final String heosMsg, @NonNull final Map<String, String> tokens)
+                                                          @NonNull final DocumentContext heosMsg, @NonNull final Map<String, String> tokens)
     {
         if (HEOS_RESP_BROWSE_SERV.equals(command) ||
                 HEOS_RESP_BROWSE_CONT.equals(command) ||
@@ -412,9 +423,9 @@ public class DcpMediaContainerMsg extends ISCPMessage
         return null;
     }
 
-    private static void readMediaItems(DcpMediaContainerMsg parentMsg, String heosMsg)
+    private static void readMediaItems(DcpMediaContainerMsg parentMsg, DocumentContext heosMsg)
     {
-        final JSONArray payload = JsonPath.parse(heosMsg).read("$.payload");
+        final JSONArray payload = heosMsg.read("$.payload");
         for (int i = 0; i < payload.size(); i++)
         {
             @SuppressWarnings("unchecked")
@@ -448,9 +459,9 @@ public class DcpMediaContainerMsg extends ISCPMessage
         }
     }
 
-    private static void readPlayQueueItems(DcpMediaContainerMsg parentMsg, String heosMsg)
+    private static void readPlayQueueItems(DcpMediaContainerMsg parentMsg, DocumentContext heosMsg)
     {
-        final JSONArray payload = JsonPath.parse(heosMsg).read("$.payload");
+        final JSONArray payload = heosMsg.read("$.payload");
         for (int i = 0; i < payload.size(); i++)
         {
             @SuppressWarnings("unchecked")
@@ -467,9 +478,9 @@ public class DcpMediaContainerMsg extends ISCPMessage
         }
     }
 
-    private static void readOptions(final DcpMediaContainerMsg parentMsg, String heosMsg)
+    private static void readOptions(final DcpMediaContainerMsg parentMsg, DocumentContext heosMsg)
     {
-        final List<Map<String, JSONArray>> options = JsonPath.parse(heosMsg).read("$.options[*]");
+        final List<Map<String, JSONArray>> options = heosMsg.read("$.options[*]");
         final JSONArray browse = options.isEmpty() ? null : options.get(0).get("browse");
         if (browse == null)
         {
@@ -533,8 +544,8 @@ public class DcpMediaContainerMsg extends ISCPMessage
             }
             if (!parentSid.isEmpty() && !cid.isEmpty())
             {
-                return String.format("heos://browse/browse?sid=%s&cid=%s&range=%d,9999",
-                        parentSid, cid, start);
+                return String.format("heos://browse/browse?sid=%s&cid=%s&range=%d,%d",
+                        parentSid, cid, start, getWindowEnd());
             }
         }
         else
@@ -543,13 +554,13 @@ public class DcpMediaContainerMsg extends ISCPMessage
             {
                 if (browseType == BrowseType.PLAY_QUEUE)
                 {
-                    return String.format("heos://player/get_queue?pid=%s&range=%d,9999",
-                            DCP_HEOS_PID, start);
+                    return String.format("heos://player/get_queue?pid=%s&range=%d,%d",
+                            DCP_HEOS_PID, start, getWindowEnd());
                 }
                 else if (browseType == BrowseType.SEARCH_RESULT)
                 {
-                    return String.format("heos://browse/search?sid=%s&search=%s&scid=%s&range=%d,9999",
-                            sid, searchStr, scid, start);
+                    return String.format("heos://browse/search?sid=%s&search=%s&scid=%s&range=%d,%d",
+                            sid, searchStr, scid, start, getWindowEnd());
                 }
                 else if (!sid.isEmpty())
                 {
@@ -593,6 +604,12 @@ public class DcpMediaContainerMsg extends ISCPMessage
         return null;
     }
 
+    private int getWindowEnd()
+    {
+        // HEOS range is inclusive
+        return start + BROWSE_WINDOW - 1;
+    }
+
     @NonNull
     private static String nonNull(@Nullable final String inp)
     {
@@ -16,6 +16,9 @@ package com.mkulesh.onpc.iscp.messages;
 
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -51,6 +54,11 @@ public class DcpMediaEventMsg extends ISCPMessage
     public final static String HEOS_EVENT_QUEUE = "event/player_queue_changed";
     public final static String HEOS_EVENT_SERVICEOPT = "browse/set_service_option";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Arrays.asList(HEOS_EVENT_QUEUE, HEOS_EVENT_SERVICEOPT));
+    }
+
     @Nullable
     public static DcpMediaEventMsg processHeosMessage(@NonNull final String command)
     {
@@ -14,10 +14,13 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.DocumentContext;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
+import java.util.ArrayList;
+import java.util.Collections;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -69,15 +72,20 @@ public class DcpMediaItemMsg extends ISCPMessage
      */
     private final static String HEOS_COMMAND = "player/get_now_playing_media";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
-    public static DcpMediaItemMsg processHeosMessage(@NonNull final String command, @NonNull final String heosMsg)
+    public static DcpMediaItemMsg processHeosMessage(@NonNull final String command, @NonNull final DocumentContext heosMsg)
     {
         if (HEOS_COMMAND.equals(command))
         {
-            final String type = JsonPath.read(heosMsg, "$.payload.type");
-            final String mid = JsonPath.read(heosMsg, "station".equals(type) ? "$.payload.album_id" : "$.payload.mid");
-            final int sid = JsonPath.read(heosMsg, "$.payload.sid");
-            final int qid = "station".equals(type) ? INVALID_TRACK : JsonPath.read(heosMsg, "$.payload.qid");
+            final String type = heosMsg.read("$.payload.type");
+            final String mid = heosMsg.read("station".equals(type) ? "$.payload.album_id" : "$.payload.mid");
+            final int sid = heosMsg.read("$.payload.sid");
+            final int qid = "station".equals(type) ? INVALID_TRACK : heosMsg.read("$.payload.qid");
             return new DcpMediaItemMsg(mid, sid, qid);
         }
         return null;
@@ -17,6 +17,9 @@ package com.mkulesh.onpc.iscp.messages;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -85,6 +88,11 @@ public class DcpPlaylistCmdMsg extends ISCPMessage
         return false;
     }
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Arrays.asList(HEOS_CREATE_EVENT, HEOS_RENAME_EVENT, HEOS_DELETE_EVENT));
+    }
+
     @Nullable
     public static DcpPlaylistCmdMsg processHeosMessage(@NonNull final String command)
     {
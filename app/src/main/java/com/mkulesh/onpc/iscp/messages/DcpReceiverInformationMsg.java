@@ -14,7 +14,7 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.DocumentContext;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 import com.mkulesh.onpc.utils.Logging;
@@ -23,6 +23,7 @@ import com.mkulesh.onpc.utils.Utils;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -342,13 +343,18 @@ public class DcpReceiverInformationMsg extends ISCPMessage
         }
     }
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND_NET));
+    }
+
     @Nullable
-    public static DcpReceiverInformationMsg processHeosMessage(@NonNull final String command, @NonNull final String heosMsg)
+    public static DcpReceiverInformationMsg processHeosMessage(@NonNull final String command, @NonNull final DocumentContext heosMsg)
     {
         if (HEOS_COMMAND_NET.equals(command))
         {
-            final List<String> names = JsonPath.read(heosMsg, "$.payload[*].name");
-            final List<Integer> sids = JsonPath.read(heosMsg, "$.payload[*].sid");
+            final List<String> names = heosMsg.read("$.payload[*].name");
+            final List<Integer> sids = heosMsg.read("$.payload[*].sid");
             if (names.size() != sids.size())
             {
                 Logging.info(DcpReceiverInformationMsg.class, "Inconsistent size of manes and sids");
@@ -14,12 +14,13 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.DocumentContext;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 import com.mkulesh.onpc.utils.Logging;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -108,8 +109,13 @@ public class DcpSearchCriteriaMsg extends ISCPMessage
         return false;
     }
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
-    public static DcpSearchCriteriaMsg processHeosMessage(@NonNull final String command, @NonNull final String heosMsg, @NonNull final Map<String, String> tokens)
+    public static DcpSearchCriteriaMsg processHeosMessage(@NonNull final String command, @NonNull final DocumentContext heosMsg, @NonNull final Map<String, String> tokens)
     {
         if (HEOS_COMMAND.equals(command))
         {
@@ -119,8 +125,8 @@ public class DcpSearchCriteriaMsg extends ISCPMessage
                 return null;
             }
 
-            final List<String> names = JsonPath.read(heosMsg, "$.payload[*].name");
-            final List<Integer> csids = JsonPath.read(heosMsg, "$.payload[*].scid");
+            final List<String> names = heosMsg.read("$.payload[*].name");
+            final List<Integer> csids = heosMsg.read("$.payload[*].scid");
             if (names.size() != csids.size())
             {
                 Logging.info(DcpReceiverInformationMsg.class, "Inconsistent size of names and csids");
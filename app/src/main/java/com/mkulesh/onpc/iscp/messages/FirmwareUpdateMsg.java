@@ -14,11 +14,14 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.DocumentContext;
 import com.mkulesh.onpc.R;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
+import java.util.ArrayList;
+import java.util.Collections;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
@@ -114,13 +117,18 @@ public class FirmwareUpdateMsg extends ISCPMessage
      */
     private final static String HEOS_COMMAND = "player/check_update";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
-    public static FirmwareUpdateMsg processHeosMessage(@NonNull final String command, @NonNull final String heosMsg)
+    public static FirmwareUpdateMsg processHeosMessage(@NonNull final String command, @NonNull final DocumentContext heosMsg)
     {
         if (HEOS_COMMAND.equals(command))
         {
             final Status s = (Status) searchDcpParameter(
-                    JsonPath.read(heosMsg, "$.payload.update"), Status.values(), null);
+                    heosMsg.read("$.payload.update"), Status.values(), null);
             if (s != null)
             {
                 return new FirmwareUpdateMsg(s);
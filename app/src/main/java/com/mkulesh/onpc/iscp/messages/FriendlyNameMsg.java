@@ -14,7 +14,7 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.DocumentContext;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
@@ -98,12 +98,17 @@ public class FriendlyNameMsg extends ISCPMessage
                 new FriendlyNameMsg(dcpMsg.substring(DCP_COMMAND.length()).trim()) : null;
     }
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
-    public static FriendlyNameMsg processHeosMessage(@NonNull final String command, @NonNull final String heosMsg)
+    public static FriendlyNameMsg processHeosMessage(@NonNull final String command, @NonNull final DocumentContext heosMsg)
     {
         if (HEOS_COMMAND.equals(command))
         {
-            final String name = JsonPath.read(heosMsg, "$.payload.name");
+            final String name = heosMsg.read("$.payload.name");
             return name != null ? new FriendlyNameMsg(name) : null;
         }
         return null;
@@ -14,17 +14,22 @@
 
 package com.mkulesh.onpc.iscp.messages;
 
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
 
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.DocumentContext;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 import com.mkulesh.onpc.utils.Logging;
 import com.mkulesh.onpc.utils.Utils;
 
-import java.io.ByteArrayOutputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -82,7 +87,10 @@ public class JacketArtMsg extends ISCPMessage
     private PacketFlag packetFlag = PacketFlag.NOT_USED;
 
     private URL url = null;
-    private byte[] rawData = null;
+
+    // BMP or JPEG data are kept hex-encoded in the message and decoded into the cover buffer
+    private final static int RAW_DATA_START = 2;
+    private boolean rawData = false;
 
     JacketArtMsg(EISCPMessage raw) throws Exception
     {
@@ -104,7 +112,7 @@ public class JacketArtMsg extends ISCPMessage
                 break;
             case BMP:
             case JPEG:
-                rawData = convertRaw(data.substring(2));
+                rawData = true;
                 break;
             case NO_IMAGE:
                 // nothing to do;
@@ -130,11 +138,22 @@ public class JacketArtMsg extends ISCPMessage
         return packetFlag;
     }
 
-    public byte[] getRawData()
+    public boolean isRawData()
     {
         return rawData;
     }
 
+    /**
+     * Decodes the hex-encoded image data of this packet into the given buffer
+     */
+    public void appendRawData(@NonNull final CoverBuffer coverBuffer)
+    {
+        if (rawData)
+        {
+            coverBuffer.appendHex(data, RAW_DATA_START);
+        }
+    }
+
     public URL getUrl()
     {
         return url;
@@ -148,61 +167,108 @@ public class JacketArtMsg extends ISCPMessage
                 + "; TYPE=" + imageType.toString()
                 + "; PACKET=" + packetFlag.toString()
                 + "; URL=" + url
-                + "; RAW(" + (rawData == null ? "null" : rawData.length) + ")"
+                + "; RAW(" + (rawData ? (data.length() - RAW_DATA_START) / 2 : "null") + ")"
                 + "]";
     }
 
-    private byte[] convertRaw(String str)
+    // Covers are decoded down-sampled to the largest size of the cover view (0 if not known)
+    private final static AtomicInteger targetSize = new AtomicInteger(0);
+    private final static AtomicBoolean lowMemory = new AtomicBoolean(false);
+
+    /**
+     * Sets the cover view size in pixels. The largest reported size is used for decoding
+     */
+    public static void setTargetSize(final int size)
+    {
+        int curr;
+        do
+        {
+            curr = targetSize.get();
+        }
+        while (size > curr && !targetSize.compareAndSet(curr, size));
+    }
+
+    /**
+     * On devices with low memory, covers are decoded without alpha channel using RGB_565
+     */
+    public static void setLowMemory(final boolean flag)
+    {
+        lowMemory.set(flag);
+    }
+
+    @Nullable
+    private static Bitmap decode(@NonNull final byte[] bytes, final int offset, final int length)
     {
-        byte[] bytes = new byte[str.length() / 2];
-        for (int i = 0; i < bytes.length; i++)
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        int size = targetSize.get();
+        if (size == 0)
         {
-            final int j1 = 2 * i;
-            final int j2 = 2 * i + 1;
-            if (j1 < str.length() && j2 < str.length())
+            // the cover view is not yet measured: the shorter display side is the upper bound
+            final DisplayMetrics dm = Resources.getSystem().getDisplayMetrics();
+            size = Math.min(dm.widthPixels, dm.heightPixels);
+        }
+        if (size > 0)
+        {
+            // probe the image size without decoding
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, offset, length, options);
+            int sampleSize = 1;
+            while (options.outWidth / (2 * sampleSize) >= size && options.outHeight / (2 * sampleSize) >= size)
             {
-                bytes[i] = (byte) Integer.parseInt(str.substring(j1, j2 + 1), 16);
+                sampleSize *= 2;
             }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
         }
-        return bytes;
+        if (lowMemory.get())
+        {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+        final Bitmap cover = BitmapFactory.decodeByteArray(bytes, offset, length, options);
+        if (cover != null)
+        {
+            Logging.info(cover, "Cover image decoded: " + options.outWidth + "x" + options.outHeight
+                    + " -> " + cover.getWidth() + "x" + cover.getHeight());
+        }
+        return cover;
     }
 
-    public Bitmap loadFromUrl()
+    /**
+     * Decodes an image downloaded from the URL of this message
+     */
+    @Nullable
+    public Bitmap decodeImage(@NonNull final byte[] bytes, final int offset, final int length)
     {
         Bitmap cover = null;
-        final byte[] bytes = Utils.getUrlData(url, true);
-        if (bytes != null)
+        if (length > 0)
         {
-            final int offset = Utils.getUrlHeaderLength(bytes);
-            final int length = bytes.length - offset;
-            if (length > 0)
+            Logging.info(this, "Cover image size=" + length);
+            cover = decode(bytes, offset, length);
+            if (cover == null)
             {
-                Logging.info(this, "Cover image size=" + length);
-                cover = BitmapFactory.decodeByteArray(bytes, offset, length);
-                if (cover == null)
-                {
-                    Logging.info(this, "can not open image: BitmapFactory.decodeByteArray error");
-                }
+                Logging.info(this, "can not open image: BitmapFactory.decodeByteArray error");
             }
         }
         return cover;
     }
 
-    public Bitmap loadFromBuffer(ByteArrayOutputStream coverBuffer)
+    public Bitmap loadFromBuffer(CoverBuffer coverBuffer)
     {
-        if (coverBuffer == null)
+        if (coverBuffer == null || coverBuffer.getSize() == 0)
         {
             Logging.info(this, "can not open image: empty stream");
             return null;
         }
+        if (!coverBuffer.isValid())
+        {
+            Logging.info(this, "can not open image: invalid hex data in stream");
+            return null;
+        }
         Bitmap cover = null;
         try
         {
-            Logging.info(this, "loading image from stream");
-            coverBuffer.flush();
-            coverBuffer.close();
-            final byte[] out = coverBuffer.toByteArray();
-            cover = BitmapFactory.decodeByteArray(out, 0, out.length);
+            Logging.info(this, "loading image from stream, size=" + coverBuffer.getSize() + "B");
+            cover = decode(coverBuffer.getBytes(), 0, coverBuffer.getSize());
         }
         catch (Exception e)
         {
@@ -220,12 +286,17 @@ public class JacketArtMsg extends ISCPMessage
      */
     private final static String HEOS_COMMAND = "player/get_now_playing_media";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
-    public static JacketArtMsg processHeosMessage(@NonNull final String command, @NonNull final String heosMsg) throws Exception
+    public static JacketArtMsg processHeosMessage(@NonNull final String command, @NonNull final DocumentContext heosMsg) throws Exception
     {
         if (HEOS_COMMAND.equals(command))
         {
-            final String name = JsonPath.read(heosMsg, "$.payload.image_url");
+            final String name = heosMsg.read("$.payload.image_url");
             if (name != null && !name.isEmpty())
             {
                 return new JacketArtMsg(name);
@@ -133,6 +133,12 @@ public class MasterVolumeMsg extends ZonedMessage
         return volumeLevel;
     }
 
+    @Nullable
+    public Command getCommand()
+    {
+        return command;
+    }
+
     @NonNull
     @Override
     public String toString()
@@ -154,6 +160,7 @@ public class MasterVolumeMsg extends ZonedMessage
         else if (volumeLevel != NO_LEVEL)
         {
             par = String.format("%02x", volumeLevel);
+            return new EISCPMessage(getZoneCommand(), par).setSupersedeKey(getZoneCommand());
         }
         return new EISCPMessage(getZoneCommand(), par);
     }
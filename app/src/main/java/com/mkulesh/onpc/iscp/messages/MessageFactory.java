@@ -16,148 +16,34 @@ package com.mkulesh.onpc.iscp.messages;
 
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
+import com.mkulesh.onpc.utils.Metrics;
 
 import java.util.ArrayList;
 
+import androidx.annotation.Nullable;
+
 /**
  * A static helper class used to create messages
  */
 public class MessageFactory
 {
+    private final static Metrics.CodeCounter unknownCodes = new Metrics.CodeCounter("Unknown ISCP message");
+
+    /**
+     * Creates a message received from an ISCP device. Returns null and counts the code
+     * if the message is not known
+     */
+    @Nullable
     public static ISCPMessage create(EISCPMessage raw) throws Exception
     {
-        switch (raw.getCode().toUpperCase())
+        final int packedCode = raw.getPackedCode();
+        final MessageRegistry.Constructor c = MessageRegistry.find(packedCode, MessageRegistry.ISCP);
+        if (c == null)
         {
-        case PowerStatusMsg.CODE:
-        case PowerStatusMsg.ZONE2_CODE:
-        case PowerStatusMsg.ZONE3_CODE:
-        case PowerStatusMsg.ZONE4_CODE:
-            return new PowerStatusMsg(raw);
-        case FirmwareUpdateMsg.CODE:
-            return new FirmwareUpdateMsg(raw);
-        case ReceiverInformationMsg.CODE:
-            return new ReceiverInformationMsg(raw);
-        case FriendlyNameMsg.CODE:
-            return new FriendlyNameMsg(raw);
-        case DeviceNameMsg.CODE:
-            return new DeviceNameMsg(raw);
-        case InputSelectorMsg.CODE:
-        case InputSelectorMsg.ZONE2_CODE:
-        case InputSelectorMsg.ZONE3_CODE:
-        case InputSelectorMsg.ZONE4_CODE:
-            return new InputSelectorMsg(raw);
-        case TimeInfoMsg.CODE:
-            return new TimeInfoMsg(raw);
-        case JacketArtMsg.CODE:
-            return new JacketArtMsg(raw);
-        case TitleNameMsg.CODE:
-            return new TitleNameMsg(raw);
-        case AlbumNameMsg.CODE:
-            return new AlbumNameMsg(raw);
-        case ArtistNameMsg.CODE:
-            return new ArtistNameMsg(raw);
-        case FileFormatMsg.CODE:
-            return new FileFormatMsg(raw);
-        case TrackInfoMsg.CODE:
-            return new TrackInfoMsg(raw);
-        case PlayStatusMsg.CODE:
-        case PlayStatusMsg.CD_CODE:
-            return new PlayStatusMsg(raw);
-        case ListTitleInfoMsg.CODE:
-            return new ListTitleInfoMsg(raw);
-        case ListInfoMsg.CODE:
-            return new ListInfoMsg(raw);
-        case ListItemInfoMsg.CODE:
-            return new ListItemInfoMsg(raw);
-        case MenuStatusMsg.CODE:
-            return new MenuStatusMsg(raw);
-        case XmlListInfoMsg.CODE:
-            return new XmlListInfoMsg(raw);
-        case DisplayModeMsg.CODE:
-            return new DisplayModeMsg(raw);
-        case DimmerLevelMsg.CODE:
-            return new DimmerLevelMsg(raw);
-        case DigitalFilterMsg.CODE:
-            return new DigitalFilterMsg(raw);
-        case AudioMutingMsg.CODE:
-        case AudioMutingMsg.ZONE2_CODE:
-        case AudioMutingMsg.ZONE3_CODE:
-        case AudioMutingMsg.ZONE4_CODE:
-            return new AudioMutingMsg(raw);
-        case MasterVolumeMsg.CODE:
-        case MasterVolumeMsg.ZONE2_CODE:
-        case MasterVolumeMsg.ZONE3_CODE:
-        case MasterVolumeMsg.ZONE4_CODE:
-            return new MasterVolumeMsg(raw);
-        case ToneCommandMsg.CODE:
-        case ToneCommandMsg.ZONE2_CODE:
-        case ToneCommandMsg.ZONE3_CODE:
-            return new ToneCommandMsg(raw);
-        case SubwooferLevelCommandMsg.CODE:
-            return new SubwooferLevelCommandMsg(raw);
-        case CenterLevelCommandMsg.CODE:
-            return new CenterLevelCommandMsg(raw);
-        case PresetCommandMsg.CODE:
-        case PresetCommandMsg.ZONE2_CODE:
-        case PresetCommandMsg.ZONE3_CODE:
-        case PresetCommandMsg.ZONE4_CODE:
-            return new PresetCommandMsg(raw);
-        case PresetMemoryMsg.CODE:
-            return new PresetMemoryMsg(raw);
-        case RadioStationNameMsg.CODE:
-            return new RadioStationNameMsg(raw);
-        case TuningCommandMsg.CODE:
-        case TuningCommandMsg.ZONE2_CODE:
-        case TuningCommandMsg.ZONE3_CODE:
-        case TuningCommandMsg.ZONE4_CODE:
-            return new TuningCommandMsg(raw);
-        case RDSInformationMsg.CODE:
-            return new RDSInformationMsg(raw);
-        case MusicOptimizerMsg.CODE:
-            return new MusicOptimizerMsg(raw);
-        case AutoPowerMsg.CODE:
-            return new AutoPowerMsg(raw);
-        case CustomPopupMsg.CODE:
-            return new CustomPopupMsg(raw);
-        case GoogleCastVersionMsg.CODE:
-            return new GoogleCastVersionMsg(raw);
-        case GoogleCastAnalyticsMsg.CODE:
-            return new GoogleCastAnalyticsMsg(raw);
-        case ListeningModeMsg.CODE:
-            return new ListeningModeMsg(raw);
-        case HdmiCecMsg.CODE:
-            return new HdmiCecMsg(raw);
-        case DirectCommandMsg.CODE:
-            return new DirectCommandMsg(raw);
-        case PhaseMatchingBassMsg.CODE:
-            return new PhaseMatchingBassMsg(raw);
-        case SleepSetCommandMsg.CODE:
-            return new SleepSetCommandMsg(raw);
-        case SpeakerACommandMsg.CODE:
-        case SpeakerACommandMsg.ZONE2_CODE:
-            return new SpeakerACommandMsg(raw);
-        case SpeakerBCommandMsg.CODE:
-        case SpeakerBCommandMsg.ZONE2_CODE:
-            return new SpeakerBCommandMsg(raw);
-        case LateNightCommandMsg.CODE:
-            return new LateNightCommandMsg(raw);
-        case NetworkStandByMsg.CODE:
-            return new NetworkStandByMsg(raw);
-        case PrivacyPolicyStatusMsg.CODE:
-            return new PrivacyPolicyStatusMsg(raw);
-        case CdPlayerOperationCommandMsg.CODE:
-            return new CdPlayerOperationCommandMsg(raw);
-        case MultiroomDeviceInformationMsg.CODE:
-            return new MultiroomDeviceInformationMsg(raw);
-        case MultiroomChannelSettingMsg.CODE:
-            return new MultiroomChannelSettingMsg(raw);
-        case AudioInformationMsg.CODE:
-            return new AudioInformationMsg(raw);
-        case VideoInformationMsg.CODE:
-            return new VideoInformationMsg(raw);
-        default:
-            throw new Exception("No factory method for message " + raw.getCode());
+            unknownCodes.increment(packedCode);
+            return null;
         }
+        return c.create(raw);
     }
 
     public static ArrayList<String[]> getAllZonedMessages()
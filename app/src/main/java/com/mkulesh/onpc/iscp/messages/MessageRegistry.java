@@ -0,0 +1,255 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.iscp.messages;
+
+import com.mkulesh.onpc.iscp.EISCPMessage;
+import com.mkulesh.onpc.iscp.ISCPMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The registry of message constructors shared by the ISCP and the DCP message factories.
+ * The message codes are packed into an int and the constructor is found using a binary
+ * search in the sorted code table, without any string operations.
+ */
+final class MessageRegistry
+{
+    interface Constructor
+    {
+        ISCPMessage create(EISCPMessage raw) throws Exception;
+    }
+
+    // Protocols where a message can be created from a raw message
+    final static int ISCP = 1;
+    final static int DCP = 2;
+
+    private static class Entry implements Comparable<Entry>
+    {
+        final int code;
+        final int protocols;
+        final Constructor constructor;
+
+        Entry(int code, int protocols, Constructor constructor)
+        {
+            this.code = code;
+            this.protocols = protocols;
+            this.constructor = constructor;
+        }
+
+        @Override
+        public int compareTo(Entry other)
+        {
+            return Integer.compare(code, other.code);
+        }
+    }
+
+    private final static ArrayList<Entry> entries = new ArrayList<>();
+    private final static int[] codes;
+    private final static int[] protocols;
+    private final static Constructor[] constructors;
+
+    static
+    {
+        register(PowerStatusMsg::new, ISCP | DCP,
+                PowerStatusMsg.CODE, PowerStatusMsg.ZONE2_CODE, PowerStatusMsg.ZONE3_CODE, PowerStatusMsg.ZONE4_CODE);
+        register(FirmwareUpdateMsg::new, ISCP | DCP,
+                FirmwareUpdateMsg.CODE);
+        register(ReceiverInformationMsg::new, ISCP,
+                ReceiverInformationMsg.CODE);
+        register(FriendlyNameMsg::new, ISCP | DCP,
+                FriendlyNameMsg.CODE);
+        register(DeviceNameMsg::new, ISCP,
+                DeviceNameMsg.CODE);
+        register(InputSelectorMsg::new, ISCP | DCP,
+                InputSelectorMsg.CODE, InputSelectorMsg.ZONE2_CODE, InputSelectorMsg.ZONE3_CODE, InputSelectorMsg.ZONE4_CODE);
+        register(TimeInfoMsg::new, ISCP | DCP,
+                TimeInfoMsg.CODE);
+        register(JacketArtMsg::new, ISCP | DCP,
+                JacketArtMsg.CODE);
+        register(TitleNameMsg::new, ISCP | DCP,
+                TitleNameMsg.CODE);
+        register(AlbumNameMsg::new, ISCP | DCP,
+                AlbumNameMsg.CODE);
+        register(ArtistNameMsg::new, ISCP | DCP,
+                ArtistNameMsg.CODE);
+        register(FileFormatMsg::new, ISCP,
+                FileFormatMsg.CODE);
+        register(TrackInfoMsg::new, ISCP | DCP,
+                TrackInfoMsg.CODE);
+        register(PlayStatusMsg::new, ISCP | DCP,
+                PlayStatusMsg.CODE, PlayStatusMsg.CD_CODE);
+        register(ListTitleInfoMsg::new, ISCP,
+                ListTitleInfoMsg.CODE);
+        register(ListInfoMsg::new, ISCP,
+                ListInfoMsg.CODE);
+        register(ListItemInfoMsg::new, ISCP,
+                ListItemInfoMsg.CODE);
+        register(MenuStatusMsg::new, ISCP,
+                MenuStatusMsg.CODE);
+        register(XmlListInfoMsg::new, ISCP,
+                XmlListInfoMsg.CODE);
+        register(DisplayModeMsg::new, ISCP,
+                DisplayModeMsg.CODE);
+        register(DimmerLevelMsg::new, ISCP | DCP,
+                DimmerLevelMsg.CODE);
+        register(DigitalFilterMsg::new, ISCP,
+                DigitalFilterMsg.CODE);
+        register(AudioMutingMsg::new, ISCP | DCP,
+                AudioMutingMsg.CODE, AudioMutingMsg.ZONE2_CODE, AudioMutingMsg.ZONE3_CODE, AudioMutingMsg.ZONE4_CODE);
+        register(MasterVolumeMsg::new, ISCP | DCP,
+                MasterVolumeMsg.CODE, MasterVolumeMsg.ZONE2_CODE, MasterVolumeMsg.ZONE3_CODE, MasterVolumeMsg.ZONE4_CODE);
+        register(ToneCommandMsg::new, ISCP | DCP,
+                ToneCommandMsg.CODE, ToneCommandMsg.ZONE2_CODE, ToneCommandMsg.ZONE3_CODE);
+        register(SubwooferLevelCommandMsg::new, ISCP,
+                SubwooferLevelCommandMsg.CODE);
+        register(CenterLevelCommandMsg::new, ISCP,
+                CenterLevelCommandMsg.CODE);
+        register(PresetCommandMsg::new, ISCP | DCP,
+                PresetCommandMsg.CODE, PresetCommandMsg.ZONE2_CODE, PresetCommandMsg.ZONE3_CODE, PresetCommandMsg.ZONE4_CODE);
+        register(PresetMemoryMsg::new, ISCP | DCP,
+                PresetMemoryMsg.CODE);
+        register(RadioStationNameMsg::new, ISCP | DCP,
+                RadioStationNameMsg.CODE);
+        register(TuningCommandMsg::new, ISCP | DCP,
+                TuningCommandMsg.CODE, TuningCommandMsg.ZONE2_CODE, TuningCommandMsg.ZONE3_CODE, TuningCommandMsg.ZONE4_CODE);
+        register(RDSInformationMsg::new, ISCP,
+                RDSInformationMsg.CODE);
+        register(MusicOptimizerMsg::new, ISCP,
+                MusicOptimizerMsg.CODE);
+        register(AutoPowerMsg::new, ISCP,
+                AutoPowerMsg.CODE);
+        register(CustomPopupMsg::new, ISCP,
+                CustomPopupMsg.CODE);
+        register(GoogleCastVersionMsg::new, ISCP,
+                GoogleCastVersionMsg.CODE);
+        register(GoogleCastAnalyticsMsg::new, ISCP,
+                GoogleCastAnalyticsMsg.CODE);
+        register(ListeningModeMsg::new, ISCP | DCP,
+                ListeningModeMsg.CODE);
+        register(HdmiCecMsg::new, ISCP | DCP,
+                HdmiCecMsg.CODE);
+        register(DirectCommandMsg::new, ISCP,
+                DirectCommandMsg.CODE);
+        register(PhaseMatchingBassMsg::new, ISCP,
+                PhaseMatchingBassMsg.CODE);
+        register(SleepSetCommandMsg::new, ISCP | DCP,
+                SleepSetCommandMsg.CODE);
+        register(SpeakerACommandMsg::new, ISCP,
+                SpeakerACommandMsg.CODE, SpeakerACommandMsg.ZONE2_CODE);
+        register(SpeakerBCommandMsg::new, ISCP,
+                SpeakerBCommandMsg.CODE, SpeakerBCommandMsg.ZONE2_CODE);
+        register(LateNightCommandMsg::new, ISCP,
+                LateNightCommandMsg.CODE);
+        register(NetworkStandByMsg::new, ISCP,
+                NetworkStandByMsg.CODE);
+        register(PrivacyPolicyStatusMsg::new, ISCP,
+                PrivacyPolicyStatusMsg.CODE);
+        register(CdPlayerOperationCommandMsg::new, ISCP,
+                CdPlayerOperationCommandMsg.CODE);
+        register(MultiroomDeviceInformationMsg::new, ISCP,
+                MultiroomDeviceInformationMsg.CODE);
+        register(MultiroomChannelSettingMsg::new, ISCP,
+                MultiroomChannelSettingMsg.CODE);
+        register(AudioInformationMsg::new, ISCP,
+                AudioInformationMsg.CODE);
+        register(VideoInformationMsg::new, ISCP,
+                VideoInformationMsg.CODE);
+        register(DcpPlaylistCmdMsg::new, DCP,
+                DcpPlaylistCmdMsg.CODE);
+        register(DcpAllZoneStereoMsg::new, DCP,
+                DcpAllZoneStereoMsg.CODE);
+        register(PlayQueueRemoveMsg::new, DCP,
+                PlayQueueRemoveMsg.CODE);
+        register(PlayQueueReorderMsg::new, DCP,
+                PlayQueueReorderMsg.CODE);
+        register(OperationCommandMsg::new, DCP,
+                OperationCommandMsg.CODE, OperationCommandMsg.ZONE2_CODE, OperationCommandMsg.ZONE3_CODE, OperationCommandMsg.ZONE4_CODE);
+        register(SetupOperationCommandMsg::new, DCP,
+                SetupOperationCommandMsg.CODE);
+        register(NetworkServiceMsg::new, DCP,
+                NetworkServiceMsg.CODE);
+        register(DcpSearchCriteriaMsg::new, DCP,
+                DcpSearchCriteriaMsg.CODE);
+        register(DcpSearchMsg::new, DCP,
+                DcpSearchMsg.CODE);
+        register(DcpReceiverInformationMsg::new, DCP,
+                DcpReceiverInformationMsg.CODE);
+        register(DcpTunerModeMsg::new, DCP,
+                DcpTunerModeMsg.CODE);
+        register(DcpEcoModeMsg::new, DCP,
+                DcpEcoModeMsg.CODE);
+        register(DcpAudioRestorerMsg::new, DCP,
+                DcpAudioRestorerMsg.CODE);
+        register(DcpMediaContainerMsg::new, DCP,
+                DcpMediaContainerMsg.CODE);
+        register(DcpMediaItemMsg::new, DCP,
+                DcpMediaItemMsg.CODE);
+
+        Collections.sort(entries);
+        codes = new int[entries.size()];
+        protocols = new int[entries.size()];
+        constructors = new Constructor[entries.size()];
+        for (int i = 0; i < entries.size(); i++)
+        {
+            final Entry e = entries.get(i);
+            if (i > 0 && codes[i - 1] == e.code)
+            {
+                throw new IllegalStateException("Duplicate message code: " + e.code);
+            }
+            codes[i] = e.code;
+            protocols[i] = e.protocols;
+            constructors[i] = e.constructor;
+        }
+        entries.clear();
+    }
+
+    private static void register(final Constructor constructor, final int protocols, final String... codes)
+    {
+        for (String code : codes)
+        {
+            entries.add(new Entry(EISCPMessage.packCode(code), protocols, constructor));
+        }
+    }
+
+    /**
+     * Returns the constructor for the packed message code, or null if the message
+     * is not known for the given protocol. The code is not case-sensitive.
+     */
+    @Nullable
+    static Constructor find(final int packedCode, final int protocol)
+    {
+        final int idx = Arrays.binarySearch(codes, toUpperCase(packedCode));
+        return (idx >= 0 && (protocols[idx] & protocol) != 0) ? constructors[idx] : null;
+    }
+
+    private static int toUpperCase(final int packedCode)
+    {
+        int res = 0;
+        for (int shift = 16; shift >= 0; shift -= 8)
+        {
+            int c = (packedCode >> shift) & 0xFF;
+            if (c >= 'a' && c <= 'z')
+            {
+                c -= 'a' - 'A';
+            }
+            res |= c << shift;
+        }
+        return res;
+    }
+}
@@ -18,6 +18,8 @@ import com.mkulesh.onpc.R;
 import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 
 import androidx.annotation.DrawableRes;
@@ -268,6 +270,12 @@ public class PlayStatusMsg extends ISCPMessage
     private final static String HEOS_COMMAND_STATE = "player/get_play_state";
     private final static String HEOS_COMMAND_MODE = "player/get_play_mode";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Arrays.asList(
+                HEOS_EVENT_STATE, HEOS_EVENT_REPEAT, HEOS_EVENT_SHUFFLE, HEOS_COMMAND_STATE, HEOS_COMMAND_MODE));
+    }
+
     @Nullable
     public static PlayStatusMsg processHeosMessage(@NonNull final String command, @NonNull final Map<String, String> tokens)
     {
@@ -20,6 +20,8 @@ import com.mkulesh.onpc.iscp.EISCPMessage;
 import com.mkulesh.onpc.iscp.ISCPMessage;
 import com.mkulesh.onpc.utils.Utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
 
 import androidx.annotation.NonNull;
@@ -87,6 +89,11 @@ public class TimeInfoMsg extends ISCPMessage
      */
     private final static String HEOS_COMMAND = "event/player_now_playing_progress";
 
+    public static ArrayList<String> getAcceptedHeosCommands()
+    {
+        return new ArrayList<>(Collections.singletonList(HEOS_COMMAND));
+    }
+
     @Nullable
     @SuppressLint("SimpleDateFormat")
     public static TimeInfoMsg processHeosMessage(@NonNull final String command, @NonNull final Map<String, String> tokens)
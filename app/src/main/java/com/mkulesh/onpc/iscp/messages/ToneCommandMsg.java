@@ -21,6 +21,9 @@ import com.mkulesh.onpc.iscp.ZonedMessage;
 import com.mkulesh.onpc.utils.Logging;
 import com.mkulesh.onpc.utils.Utils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -145,15 +148,18 @@ public class ToneCommandMsg extends ZonedMessage
     public EISCPMessage getCmdMsg()
     {
         String par = "";
+        String key = getZoneCommand();
         if (bassLevel != NO_LEVEL)
         {
             par += Utils.intToneToString(BASS_MARKER, bassLevel);
+            key += BASS_MARKER;
         }
         if (trebleLevel != NO_LEVEL)
         {
             par += Utils.intToneToString(TREBLE_MARKER, trebleLevel);
+            key += TREBLE_MARKER;
         }
-        return new EISCPMessage(getZoneCommand(), par);
+        return new EISCPMessage(getZoneCommand(), par).setSupersedeKey(key);
     }
 
     @Override
@@ -165,6 +171,14 @@ public class ToneCommandMsg extends ZonedMessage
     /*
      * Denon control protocol
      */
+    @NonNull
+    public static ArrayList<String> getAcceptedDcpCodes()
+    {
+        final ArrayList<String> out = new ArrayList<>(Arrays.asList(DcpReceiverInformationMsg.DCP_COMMANDS_BASS));
+        out.addAll(Arrays.asList(DcpReceiverInformationMsg.DCP_COMMANDS_TREBLE));
+        return out;
+    }
+
     public static ToneCommandMsg processDcpMessage(@NonNull String dcpMsg)
     {
         // Bass
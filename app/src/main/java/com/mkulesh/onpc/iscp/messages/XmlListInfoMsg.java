@@ -62,6 +62,9 @@ public class XmlListInfoMsg extends ISCPMessage
         }
     }
 
+    // Large lists are requested window by window
+    public final static int LIST_WINDOW = 50;
+
     private final UiType uiType;
     private final String rawXml;
 
@@ -89,17 +92,27 @@ public class XmlListInfoMsg extends ISCPMessage
                 + "]";
     }
 
-    public static String getListedData(int seqNumber, int layer, int startItem, int endItem)
+    public int getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    public static String getListedData(int seqNumber, int layer, int startItem, int numberOfItems)
     {
         return "L" + String.format("%04x", seqNumber) +
                 String.format("%02x", layer) +
                 String.format("%04x", startItem) +
-                String.format("%04x", endItem);
+                String.format("%04x", numberOfItems);
     }
 
-    public void parseXml(final List<XmlListItemMsg> items, final int numberOfLayers) throws Exception
+    /**
+     * Parses the listed items into the given list and returns the list index of the first
+     * item (the offset of the requested window), or -1 if the response contains no items
+     */
+    public int parseXml(final List<XmlListItemMsg> items, final int numberOfLayers) throws Exception
     {
         items.clear();
+        int retValue = -1;
         InputStream stream = new ByteArrayInputStream(rawXml.getBytes(Utils.UTF_8));
         final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         final DocumentBuilder builder = factory.newDocumentBuilder();
@@ -127,6 +140,7 @@ public class XmlListInfoMsg extends ISCPMessage
                     continue;
                 }
                 int offset = Integer.parseInt(itemsInfo.getAttribute("offset"));
+                retValue = offset;
                 final List<Element> elements = Utils.getElements(itemsInfo, "item");
                 int id = 0;
                 for (Element element : elements)
@@ -137,5 +151,6 @@ public class XmlListInfoMsg extends ISCPMessage
             }
         }
         stream.close();
+        return retValue;
     }
 }
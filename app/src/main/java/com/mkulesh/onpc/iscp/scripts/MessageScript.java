@@ -285,6 +285,21 @@ public class MessageScript implements ConnectionIf, MessageScriptIf
         }
     }
 
+    /**
+     * A script is running while some of its actions are not done
+     */
+    public boolean isRunning()
+    {
+        for (Action a : actions)
+        {
+            if (a.state != ActionState.DONE)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void processNextActions(@NonNull final State state, @NonNull MessageChannel channel)
     {
         if (!channel.isActive())
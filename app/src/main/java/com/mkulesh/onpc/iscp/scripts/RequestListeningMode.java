@@ -81,7 +81,7 @@ public class RequestListeningMode implements MessageScriptIf
                     listeningModeQueue.poll();
                     Logging.info(RequestListeningMode.this, "re-requesting LM state ["
                             + listeningModeRequests.addAndGet(1) + "]...");
-                    channel.sendMessage(new EISCPMessage(ListeningModeMsg.CODE, EISCPMessage.QUERY));
+                    channel.sendMessage(EISCPMessage.getQuery(ListeningModeMsg.CODE));
                 }
             }, LISTENING_MODE_DELAY);
         }
@@ -0,0 +1,169 @@
+/*
+ * Enhanced Music Controller
+ * Copyright (C) 2018-2025 by Mikhail Kulesh
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details. You should have received a copy of the GNU General
+ * Public License along with this program.
+ */
+
+package com.mkulesh.onpc.utils;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Simple runtime counters that are shown in the developer mode
+ */
+public final class Metrics
+{
+    private final static Map<String, Long> values = new TreeMap<>();
+    private final static ArrayList<CodeCounter> codeCounters = new ArrayList<>();
+
+    public static void add(final String name, final long delta)
+    {
+        synchronized (values)
+        {
+            final Long v = values.get(name);
+            values.put(name, v == null ? delta : v + delta);
+        }
+    }
+
+    public static void increment(final String name)
+    {
+        add(name, 1);
+    }
+
+    public static void set(final String name, final long value)
+    {
+        synchronized (values)
+        {
+            values.put(name, value);
+        }
+    }
+
+    public static long get(final String name)
+    {
+        synchronized (values)
+        {
+            final Long v = values.get(name);
+            return v == null ? 0 : v;
+        }
+    }
+
+    public static String getReport()
+    {
+        final Map<String, Long> report;
+        synchronized (values)
+        {
+            report = new TreeMap<>(values);
+        }
+        synchronized (codeCounters)
+        {
+            for (CodeCounter c : codeCounters)
+            {
+                c.addTo(report);
+            }
+        }
+        final StringBuilder str = new StringBuilder();
+        for (Map.Entry<String, Long> e : report.entrySet())
+        {
+            str.append(e.getKey()).append(": ").append(e.getValue()).append("\n");
+        }
+        return str.toString();
+    }
+
+    /**
+     * Counts events per message code packed into an int, see EISCPMessage.packCode.
+     * No label is built on increment: the labels are only built for the report
+     */
+    public static class CodeCounter
+    {
+        private final static int MAX_CODES = 64;
+        private final String name;
+        private final int[] codes = new int[MAX_CODES];
+        private final long[] counts = new long[MAX_CODES];
+        private int size = 0;
+        private long others = 0;
+
+        public CodeCounter(final String name)
+        {
+            this.name = name;
+            synchronized (codeCounters)
+            {
+                codeCounters.add(this);
+            }
+        }
+
+        public synchronized void increment(final int packedCode)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if (codes[i] == packedCode)
+                {
+                    counts[i]++;
+                    return;
+                }
+            }
+            if (size < MAX_CODES)
+            {
+                codes[size] = packedCode;
+                counts[size] = 1;
+                size++;
+            }
+            else
+            {
+                others++;
+            }
+        }
+
+        synchronized void addTo(final Map<String, Long> report)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                final int c = codes[i];
+                final String code = new String(new char[]{
+                        (char) ((c >> 16) & 0xFF), (char) ((c >> 8) & 0xFF), (char) (c & 0xFF) });
+                report.put(name + " " + code, counts[i]);
+            }
+            if (others > 0)
+            {
+                report.put(name + " (other codes)", others);
+            }
+        }
+    }
+
+    /**
+     * Counts events and publishes the number of events per second
+     */
+    public static class RateCounter
+    {
+        private final static long PERIOD = 1000;
+        private final String name;
+        private long startTime = System.currentTimeMillis();
+        private long count = 0;
+
+        public RateCounter(final String name)
+        {
+            this.name = name;
+        }
+
+        public void tick()
+        {
+            count++;
+            final long currTime = System.currentTimeMillis();
+            if (currTime - startTime >= PERIOD)
+            {
+                set(name, (count * PERIOD) / (currTime - startTime));
+                startTime = currTime;
+                count = 0;
+            }
+        }
+    }
+}